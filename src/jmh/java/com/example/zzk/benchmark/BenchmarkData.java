@@ -0,0 +1,65 @@
+package com.example.zzk.benchmark;
+
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.example.zzk.websocket.WsMsgTypeEnum;
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+
+/**
+ * Representative message payloads shared by the benchmarks
+ *
+ * A payload of n items is a task-update-like object with n entries, one item is about 150 bytes
+ * of JSON. Payloads are deterministic, every run measures the same bytes.
+ */
+public final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param items Number of entries, 1 for a typical notification
+     * @return Data JSON of the payload
+     */
+    public static String dataJson(int items) {
+        JSONObject data = new JSONObject();
+        data.put("id", 1_000_000L + items);
+        data.put("title", "演练任务状态更新");
+        data.put("status", "RUNNING");
+        data.put("updatedAt", 1_700_000_000_000L);
+        JSONArray entries = new JSONArray(items);
+        for (int i = 0; i < items; i++) {
+            JSONObject entry = new JSONObject();
+            entry.put("taskId", 20_000L + i);
+            entry.put("name", "task-" + i);
+            entry.put("assignee", "user-" + (i % 97));
+            entry.put("progress", (i * 37) % 100);
+            entry.put("note", "第" + i + "项处置措施已下发");
+            entries.add(entry);
+        }
+        data.put("entries", entries);
+        return data.toJSONString();
+    }
+
+    /**
+     * @param items Number of entries of the data
+     * @return A broadcast message as published through Redis
+     */
+    public static WebSocketMessageDTO broadcast(int items) {
+        WebSocketMessageDTO message = new WebSocketMessageDTO(WsMsgTypeEnum.TASK_UPDATED.getCode(), dataJson(items),
+                false, null, null, WebSocketMessageDTO.MessageBroadcastType.BROADCAST);
+        message.setOriginInstance("10.0.0.12:8080");
+        return message;
+    }
+
+    /**
+     * @param items Number of entries of the data
+     * @return A single-user message with a mailbox seq, as published through Redis
+     */
+    public static WebSocketMessageDTO direct(int items) {
+        WebSocketMessageDTO message = new WebSocketMessageDTO(WsMsgTypeEnum.TASK_ASSIGNED.getCode(), dataJson(items),
+                false, null, "user-42", WebSocketMessageDTO.MessageBroadcastType.SINGLE_USER);
+        message.setSeq(12_345L);
+        message.setOriginInstance("10.0.0.12:8080");
+        return message;
+    }
+}
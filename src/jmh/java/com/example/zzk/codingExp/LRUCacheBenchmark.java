@@ -0,0 +1,81 @@
+package com.example.zzk.codingExp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRUCache get / put on a full cache
+ *
+ * Keys are drawn uniformly from twice the capacity, so about half of the gets hit and about
+ * half of the puts evict. The cache is not thread-safe and is measured single-threaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LRUCacheBenchmark {
+
+    private static final int KEY_COUNT = 1 << 16;
+
+    @Param({"1024", "65536"})
+    public int capacity;
+
+    private LRUCache cache;
+
+    private int[] keys;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        cache = new LRUCache(capacity);
+        for (int key = 0; key < capacity; key++) {
+            cache.put(key, key);
+        }
+        Random random = new Random(42);
+        keys = new int[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys[i] = random.nextInt(capacity * 2);
+        }
+    }
+
+    private int nextKey() {
+        return keys[next++ & (KEY_COUNT - 1)];
+    }
+
+    @Benchmark
+    public int get() {
+        return cache.get(nextKey());
+    }
+
+    @Benchmark
+    public void put() {
+        int key = nextKey();
+        cache.put(key, key);
+    }
+
+    /** One put per four gets, a read-mostly cache */
+    @Benchmark
+    public int mixed() {
+        int key = nextKey();
+        if ((key & 3) == 0) {
+            cache.put(key, key);
+            return key;
+        }
+        return cache.get(key);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.zzk.config;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snowflake ID generation shared by 1, 8 and 64 threads
+ *
+ * Every thread draws from the one generator of the instance, as the application does. The
+ * worker ID is assigned through the single-node path, no Redis is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    private RedisDistributedIdGenerator generator;
+
+    @Setup
+    public void setUp() {
+        WorkerIdAllocator allocator = new WorkerIdAllocator();
+        ReflectionTestUtils.setField(allocator, "messageBus", "LOCAL");
+        allocator.allocateWorkerId();
+
+        generator = new RedisDistributedIdGenerator();
+        ReflectionTestUtils.setField(generator, "workerIdAllocator", allocator);
+        generator.init();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Long nextId1Thread() {
+        return generator.nextId(null);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Long nextId8Threads() {
+        return generator.nextId(null);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Long nextId64Threads() {
+        return generator.nextId(null);
+    }
+}
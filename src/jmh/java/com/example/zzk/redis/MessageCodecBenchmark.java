@@ -0,0 +1,92 @@
+package com.example.zzk.redis;
+
+import com.example.zzk.benchmark.BenchmarkData;
+import com.example.zzk.metrics.MessagingMetrics;
+import com.example.zzk.redis.codec.MessageCodecType;
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis message encoding and decoding, per envelope format
+ *
+ * decode is what {@link RedisMessageSubscriber#receiveMessage(byte[])} does before dispatching,
+ * encode what the publisher does per message. The encoded size of each combination is reported
+ * as the payloadBytes secondary result of encode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    @Param({"LEGACY", "JSON", "JSONB"})
+    public MessageCodecType codec;
+
+    @Param({"1", "100"})
+    public int items;
+
+    /** Compress payloads from 8 KB on, like the default configuration */
+    @Param({"false", "true"})
+    public boolean compression;
+
+    private PayloadCompressor compressor;
+
+    private WebSocketMessageDTO message;
+
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        compressor = new PayloadCompressor(new MessagingMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(compressor, "enabled", compression);
+        ReflectionTestUtils.setField(compressor, "thresholdBytes", 8192);
+        ReflectionTestUtils.setField(compressor, "level", 1);
+        message = BenchmarkData.direct(items);
+        payload = compressor.compress(MessageEnvelope.encode(message, codec.getVersion()));
+    }
+
+    @Benchmark
+    public byte[] encode(PayloadSize size) {
+        byte[] encoded = compressor.compress(MessageEnvelope.encode(message, codec.getVersion()));
+        size.payloadBytes = encoded.length;
+        return encoded;
+    }
+
+    @Benchmark
+    public WebSocketMessageDTO decode() {
+        return MessageEnvelope.decode(compressor.decompress(payload));
+    }
+
+    /**
+     * Reports the encoded payload size next to the timings, the last value is kept per iteration
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class PayloadSize {
+
+        public long payloadBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            payloadBytes = 0;
+        }
+    }
+}
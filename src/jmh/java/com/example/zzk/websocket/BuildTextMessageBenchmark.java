@@ -0,0 +1,66 @@
+package com.example.zzk.websocket;
+
+import com.example.zzk.benchmark.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound frame encoding
+ *
+ * buildTextMessage encodes a one-off frame from scratch, recipientText / recipientBinary
+ * measure the per-recipient cost of a fan-out once the shared envelope exists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildTextMessageBenchmark {
+
+    @Param({"1", "100"})
+    public int items;
+
+    private WebsocketHandler handler;
+
+    private String dataJson;
+
+    private BroadcastEnvelope envelope;
+
+    @Setup
+    public void setUp() {
+        // buildTextMessage does not touch any of the injected collaborators
+        handler = new WebsocketHandler();
+        dataJson = BenchmarkData.dataJson(items);
+        envelope = BroadcastEnvelope.of(WsMsgTypeEnum.TASK_UPDATED.getCode(), dataJson, "8080");
+        // Encode the lazily built binary parts outside the measurement
+        envelope.encodeBinary("user-1");
+    }
+
+    @Benchmark
+    public TextMessage buildTextMessage() {
+        return handler.buildTextMessage(WsMsgTypeEnum.TASK_UPDATED.getCode(), dataJson, "user-42", "8080");
+    }
+
+    @Benchmark
+    public TextMessage recipientText() {
+        return envelope.forRecipient("user-42");
+    }
+
+    @Benchmark
+    public byte[] recipientBinary() {
+        return envelope.encodeBinary("user-42");
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.zzk.websocket.dto;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONB;
+import com.example.zzk.benchmark.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * fastjson2 (de)serialization of the DTO through its bean mapping, JSON text and JSONB
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketMessageDtoBenchmark {
+
+    @Param({"1", "100"})
+    public int items;
+
+    private WebSocketMessageDTO message;
+
+    private String json;
+
+    private byte[] jsonb;
+
+    @Setup
+    public void setUp() {
+        message = BenchmarkData.direct(items);
+        json = JSON.toJSONString(message);
+        jsonb = JSONB.toBytes(message);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return JSON.toJSONString(message);
+    }
+
+    @Benchmark
+    public WebSocketMessageDTO parseJson() {
+        return JSON.parseObject(json, WebSocketMessageDTO.class);
+    }
+
+    @Benchmark
+    public byte[] toJsonb() {
+        return JSONB.toBytes(message);
+    }
+
+    @Benchmark
+    public WebSocketMessageDTO parseJsonb() {
+        return JSONB.parseObject(jsonb, WebSocketMessageDTO.class);
+    }
+}
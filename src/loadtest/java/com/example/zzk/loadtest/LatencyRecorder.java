@@ -0,0 +1,90 @@
+package com.example.zzk.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publish-to-receive latency of one message kind
+ *
+ * Client callbacks record into an HdrHistogram {@link Recorder}, which is wait-free for writers,
+ * while the reporter periodically swaps out the interval histogram and folds it into the total.
+ * Deliveries are counted from the start, latencies only once measuring started, so warm-up
+ * samples (JIT, connection pools, first fan-out snapshot) do not end up in the percentiles.
+ */
+final class LatencyRecorder {
+
+    /** Latencies above one minute are clamped, they only mean the run is broken */
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final String name;
+
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_NANOS, 3);
+
+    private final LongAdder deliveries = new LongAdder();
+
+    /** Reporter thread only */
+    private final Histogram total = new Histogram(HIGHEST_TRACKABLE_NANOS, 3);
+
+    /** Reporter thread only */
+    private Histogram interval;
+
+    private volatile boolean measuring;
+
+    LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Record one delivery, called concurrently by client callbacks
+     *
+     * @param latencyNanos Time from the message's intended send time until it was received
+     */
+    void record(long latencyNanos) {
+        deliveries.increment();
+        if (measuring) {
+            recorder.recordValue(Math.max(0, Math.min(latencyNanos, HIGHEST_TRACKABLE_NANOS)));
+        }
+    }
+
+    void startMeasuring() {
+        // Drop anything recorded before, e.g. by a racing warm-up callback
+        recorder.reset();
+        measuring = true;
+    }
+
+    void stopMeasuring() {
+        measuring = false;
+    }
+
+    /**
+     * @return Deliveries received so far, including warm-up
+     */
+    long deliveries() {
+        return deliveries.sum();
+    }
+
+    /**
+     * Swap out the latencies recorded since the last call and add them to the total
+     *
+     * @return Latencies of the interval
+     */
+    Histogram interval() {
+        interval = interval == null ? recorder.getIntervalHistogram() : recorder.getIntervalHistogram(interval);
+        total.add(interval);
+        return interval;
+    }
+
+    /**
+     * @return All latencies recorded while measuring, up to the last {@link #interval()} call
+     */
+    Histogram total() {
+        return total;
+    }
+}
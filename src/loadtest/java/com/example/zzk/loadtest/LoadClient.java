@@ -0,0 +1,135 @@
+package com.example.zzk.loadtest;
+
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * One simulated client connection
+ *
+ * The connection counts as established once the server's welcome frame arrived, that is when
+ * the session is registered and reachable by fan-out. Load messages carry their intended send
+ * time (System.nanoTime() of the same JVM) in data.sentAt and their kind in data.kind; both are
+ * picked out of the frame text directly, parsing every frame as JSON would make the clients the
+ * bottleneck long before the server.
+ */
+final class LoadClient implements WebSocket.Listener {
+
+    static final String KIND_BROADCAST = "B";
+    static final String KIND_DIRECT = "D";
+
+    private static final String SENT_AT_FIELD = "\"sentAt\":";
+    private static final String KIND_FIELD = "\"kind\":\"";
+
+    private final String userId;
+
+    private final LatencyRecorder broadcastLatency;
+
+    private final LatencyRecorder directLatency;
+
+    private final CompletableFuture<Void> welcomed = new CompletableFuture<>();
+
+    /** Fragments of a text frame split by the transport, callback thread only */
+    private StringBuilder partial;
+
+    private volatile WebSocket webSocket;
+
+    LoadClient(String userId, LatencyRecorder broadcastLatency, LatencyRecorder directLatency) {
+        this.userId = userId;
+        this.broadcastLatency = broadcastLatency;
+        this.directLatency = directLatency;
+    }
+
+    String userId() {
+        return userId;
+    }
+
+    /**
+     * @return Completes when the welcome frame arrived, exceptionally if the connection failed
+     */
+    CompletableFuture<Void> welcomed() {
+        return welcomed;
+    }
+
+    void failed(Throwable error) {
+        welcomed.completeExceptionally(error);
+    }
+
+    void close() {
+        WebSocket current = webSocket;
+        if (current != null && !current.isOutputClosed()) {
+            current.sendClose(WebSocket.NORMAL_CLOSURE, "load test finished");
+        }
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket) {
+        this.webSocket = webSocket;
+        webSocket.request(1);
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        long receivedAt = System.nanoTime();
+        if (!last) {
+            if (partial == null) {
+                partial = new StringBuilder();
+            }
+            partial.append(data);
+        } else if (partial != null) {
+            partial.append(data);
+            onFrame(partial, receivedAt);
+            partial = null;
+        } else {
+            onFrame(data, receivedAt);
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        welcomed.completeExceptionally(new IllegalStateException("Closed by server: " + statusCode + " " + reason));
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        welcomed.completeExceptionally(error);
+    }
+
+    private void onFrame(CharSequence frame, long receivedAt) {
+        String text = frame.toString();
+        int sentAt = text.indexOf(SENT_AT_FIELD);
+        if (sentAt < 0) {
+            if (!welcomed.isDone() && text.contains("\"welcome\"")) {
+                welcomed.complete(null);
+            }
+            return;
+        }
+        long sentNanos = parseLong(text, sentAt + SENT_AT_FIELD.length());
+        int kind = text.indexOf(KIND_FIELD);
+        boolean direct = kind >= 0 && text.startsWith(KIND_DIRECT, kind + KIND_FIELD.length());
+        (direct ? directLatency : broadcastLatency).record(receivedAt - sentNanos);
+    }
+
+    private static long parseLong(String text, int from) {
+        boolean negative = from < text.length() && text.charAt(from) == '-';
+        long value = 0;
+        for (int i = negative ? from + 1 : from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+}
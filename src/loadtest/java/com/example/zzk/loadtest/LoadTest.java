@@ -0,0 +1,289 @@
+package com.example.zzk.loadtest;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.example.zzk.JsonTestApplication;
+import com.example.zzk.websocket.WebsocketHandler;
+import com.example.zzk.websocket.WsMsgTypeEnum;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end WebSocket load test of one application instance
+ *
+ * Boots the application in-process with the loadtest profile, opens the configured number of
+ * client connections to /ws?user=..., then triggers broadcasts and single-user messages through
+ * {@link WebsocketHandler} at fixed rates and reports:
+ * - connect rate and time until a connection received its welcome frame
+ * - delivery throughput and deliveries missing after the drain timeout
+ * - publish-to-receive latency percentiles per message kind
+ *
+ * Messages are sent on a fixed schedule and their latency is measured from the scheduled send
+ * time, so a stalled publish shows up in the percentiles instead of silently lowering the rate.
+ *
+ * The profile runs on the in-process message bus, which stands in for Redis: nothing has to be
+ * installed and the numbers cover the full publish / dispatch / fan-out / outbound path of one
+ * instance. Passing -Dwebsocket.bus=REDIS -Dspring.data.redis.host=localhost runs the same load
+ * through a local Redis instead.
+ *
+ * Run with: mvn -Ploadtest test-compile exec:java -Dloadtest.connections=5000
+ * (see {@link LoadTestOptions} for the other settings). Clients and server share the JVM and its
+ * file descriptor limit, raise ulimit -n above twice the connection count.
+ */
+public final class LoadTest {
+
+    private final LoadTestOptions options;
+
+    private final WebsocketHandler websocketHandler;
+
+    private final URI endpoint;
+
+    private final String bus;
+
+    private final LatencyRecorder broadcastLatency = new LatencyRecorder("broadcast");
+
+    private final LatencyRecorder directLatency = new LatencyRecorder("direct");
+
+    private final Histogram connectLatency = new Histogram(TimeUnit.MINUTES.toNanos(1), 3);
+
+    private final List<LoadClient> connected = new ArrayList<>();
+
+    private final String padding;
+
+    private LoadTest(LoadTestOptions options, ConfigurableApplicationContext context) {
+        this.options = options;
+        this.websocketHandler = context.getBean(WebsocketHandler.class);
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        this.endpoint = URI.create("ws://127.0.0.1:" + port + "/ws");
+        this.bus = context.getEnvironment().getProperty("websocket.bus", "REDIS");
+        this.padding = "x".repeat(Math.max(0, options.payloadBytes()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Restarts would reload the application in a second class loader mid-run
+        System.setProperty("spring.devtools.restart.enabled", "false");
+        LoadTestOptions options = LoadTestOptions.fromSystemProperties();
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(JsonTestApplication.class)
+                .profiles("loadtest")
+                .run(args)) {
+            new LoadTest(options, context).run();
+        }
+    }
+
+    private void run() throws InterruptedException {
+        HttpClient httpClient = HttpClient.newHttpClient();
+        try {
+            connect(httpClient);
+            if (connected.isEmpty()) {
+                System.out.println("No connection established, nothing to measure");
+                return;
+            }
+            send();
+        } finally {
+            connected.forEach(LoadClient::close);
+        }
+    }
+
+    // ========================================
+    // Connect
+    // ========================================
+
+    private void connect(HttpClient httpClient) throws InterruptedException {
+        int total = options.connections();
+        List<LoadClient> clients = new ArrayList<>(total);
+        Semaphore inFlight = new Semaphore(options.connectConcurrency());
+        CountDownLatch done = new CountDownLatch(total);
+
+        System.out.printf("Opening %d connections to %s (bus=%s, %d in flight)%n",
+                total, endpoint, bus, options.connectConcurrency());
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            inFlight.acquire();
+            LoadClient client = new LoadClient(options.userPrefix() + i, broadcastLatency, directLatency);
+            clients.add(client);
+            long connectStart = System.nanoTime();
+            client.welcomed().whenComplete((ignored, error) -> {
+                if (error == null) {
+                    synchronized (connectLatency) {
+                        connectLatency.recordValue(Math.min(System.nanoTime() - connectStart,
+                                connectLatency.getHighestTrackableValue()));
+                    }
+                }
+                inFlight.release();
+                done.countDown();
+            });
+            httpClient.newWebSocketBuilder()
+                    .buildAsync(URI.create(endpoint + "?user=" + client.userId()), client)
+                    .exceptionally(error -> {
+                        client.failed(error);
+                        return null;
+                    });
+        }
+        boolean complete = done.await(options.connectTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        long elapsed = System.nanoTime() - start;
+
+        for (LoadClient client : clients) {
+            if (client.welcomed().isDone() && !client.welcomed().isCompletedExceptionally()) {
+                connected.add(client);
+            }
+        }
+        int failed = total - connected.size();
+        System.out.printf("Connected %d / %d in %.2f s: %.1f conn/s, %d failed%s%n",
+                connected.size(), total, elapsed / 1e9, connected.size() / (elapsed / 1e9), failed,
+                complete ? "" : " or timed out");
+        synchronized (connectLatency) {
+            printPercentiles("connect", connectLatency);
+        }
+    }
+
+    // ========================================
+    // Send and measure
+    // ========================================
+
+    private void send() throws InterruptedException {
+        long broadcastInterval = intervalNanos(options.broadcastRate());
+        long directInterval = intervalNanos(options.directRate());
+        long warmupNanos = options.warmup().toNanos();
+        long durationNanos = options.duration().toNanos();
+        int recipients = connected.size();
+
+        System.out.printf("Sending %.1f broadcasts/s and %.1f direct messages/s to %d connections: "
+                        + "%.0f deliveries/s expected, %d s warm-up, %d s measured%n",
+                options.broadcastRate(), options.directRate(), recipients,
+                options.broadcastRate() * recipients + options.directRate(),
+                options.warmup().toSeconds(), options.duration().toSeconds());
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "loadtest-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        long[] lastDeliveries = {0};
+        reporter.scheduleAtFixedRate(() -> report(lastDeliveries), 1, 1, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        long nextBroadcast = broadcastInterval > 0 ? start : Long.MAX_VALUE;
+        long nextDirect = directInterval > 0 ? start : Long.MAX_VALUE;
+        long broadcasts = 0;
+        long directs = 0;
+        boolean measuring = false;
+
+        while (true) {
+            long next = Math.min(nextBroadcast, nextDirect);
+            if (next >= end) {
+                break;
+            }
+            parkUntil(next);
+            if (!measuring && next >= measureFrom) {
+                broadcastLatency.startMeasuring();
+                directLatency.startMeasuring();
+                measuring = true;
+            }
+            if (nextBroadcast <= nextDirect) {
+                websocketHandler.sendMsgToAllClient(WsMsgTypeEnum.SYSTEM_NOTIFICATION,
+                        payload(LoadClient.KIND_BROADCAST, nextBroadcast));
+                broadcasts++;
+                nextBroadcast += broadcastInterval;
+            } else {
+                String target = connected.get(ThreadLocalRandom.current().nextInt(recipients)).userId();
+                websocketHandler.sendMsgToOneUser(WsMsgTypeEnum.TASK_ASSIGNED,
+                        payload(LoadClient.KIND_DIRECT, nextDirect), target);
+                directs++;
+                nextDirect += directInterval;
+            }
+        }
+        long sendEnd = System.nanoTime();
+
+        long expected = broadcasts * recipients + directs;
+        long drainDeadline = sendEnd + options.drainTimeout().toNanos();
+        while (received() < expected && System.nanoTime() < drainDeadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        broadcastLatency.stopMeasuring();
+        directLatency.stopMeasuring();
+        reporter.shutdown();
+        reporter.awaitTermination(5, TimeUnit.SECONDS);
+        // Latencies recorded after the last report tick
+        broadcastLatency.interval();
+        directLatency.interval();
+
+        long received = received();
+        long measured = broadcastLatency.total().getTotalCount() + directLatency.total().getTotalCount();
+        System.out.println();
+        System.out.printf("Sent %d broadcasts and %d direct messages in %.2f s (target %.2f s)%n",
+                broadcasts, directs, (sendEnd - start) / 1e9, (end - start) / 1e9);
+        System.out.printf("Deliveries: %d expected, %d received, %d missing%n",
+                expected, received, Math.max(0, expected - received));
+        System.out.printf("Throughput: %.0f deliveries/s measured (%.0f/s expected)%n",
+                measured / (durationNanos / 1e9), options.broadcastRate() * recipients + options.directRate());
+        printPercentiles(broadcastLatency.name(), broadcastLatency.total());
+        printPercentiles(directLatency.name(), directLatency.total());
+    }
+
+    private JSONObject payload(String kind, long sentAt) {
+        JSONObject data = new JSONObject();
+        data.put("kind", kind);
+        data.put("sentAt", sentAt);
+        data.put("pad", padding);
+        return data;
+    }
+
+    private long received() {
+        return broadcastLatency.deliveries() + directLatency.deliveries();
+    }
+
+    private void report(long[] lastDeliveries) {
+        long deliveries = received();
+        Histogram broadcast = broadcastLatency.interval();
+        Histogram direct = directLatency.interval();
+        System.out.printf("%,10d deliveries/s | broadcast p99 %8.3f ms | direct p99 %8.3f ms%n",
+                deliveries - lastDeliveries[0],
+                millis(broadcast.getValueAtPercentile(99)), millis(direct.getValueAtPercentile(99)));
+        lastDeliveries[0] = deliveries;
+    }
+
+    private static void printPercentiles(String name, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            System.out.printf("%-9s latency: no samples%n", name);
+            return;
+        }
+        System.out.printf("%-9s latency (ms): p50 %.3f | p90 %.3f | p99 %.3f | p99.9 %.3f | max %.3f | n=%d%n",
+                name,
+                millis(histogram.getValueAtPercentile(50)),
+                millis(histogram.getValueAtPercentile(90)),
+                millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()),
+                histogram.getTotalCount());
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static long intervalNanos(double ratePerSecond) {
+        return ratePerSecond > 0 ? Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond)) : 0;
+    }
+
+    private static void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.zzk.loadtest;
+
+import java.time.Duration;
+
+/**
+ * Load test settings, read from loadtest.* system properties
+ *
+ * @param connections Client connections to open, one user each
+ * @param connectConcurrency Handshakes in flight at the same time
+ * @param connectTimeout Time to wait for all connections to receive their welcome frame
+ * @param broadcastRate Broadcasts per second, every connection receives each one
+ * @param directRate Single-user messages per second, to a random connected user
+ * @param payloadBytes Padding added to every message's data
+ * @param warmup Sending time whose latencies are discarded
+ * @param duration Measured sending time
+ * @param drainTimeout Time to wait for outstanding deliveries after sending stopped
+ * @param userPrefix Prefix of the generated user IDs
+ */
+public record LoadTestOptions(int connections,
+                              int connectConcurrency,
+                              Duration connectTimeout,
+                              double broadcastRate,
+                              double directRate,
+                              int payloadBytes,
+                              Duration warmup,
+                              Duration duration,
+                              Duration drainTimeout,
+                              String userPrefix) {
+
+    public static LoadTestOptions fromSystemProperties() {
+        return new LoadTestOptions(
+                intProperty("loadtest.connections", 2000),
+                intProperty("loadtest.connect-concurrency", 200),
+                Duration.ofSeconds(intProperty("loadtest.connect-timeout-seconds", 60)),
+                doubleProperty("loadtest.broadcast-rate", 20),
+                doubleProperty("loadtest.direct-rate", 2000),
+                intProperty("loadtest.payload-bytes", 256),
+                Duration.ofSeconds(intProperty("loadtest.warmup-seconds", 5)),
+                Duration.ofSeconds(intProperty("loadtest.duration-seconds", 30)),
+                Duration.ofSeconds(intProperty("loadtest.drain-timeout-seconds", 10)),
+                System.getProperty("loadtest.user-prefix", "lt-"));
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null || value.isBlank() ? defaultValue : Double.parseDouble(value.trim());
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.zzk.config;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * 当前应用实例的集群唯一标识
+ * 格式：主机名:端口，可通过 websocket.instance-id 覆盖
+ */
+@Slf4j
+@Component
+public class InstanceIdentity {
+
+    @Value("${websocket.instance-id:}")
+    private String configuredInstanceId;
+
+    @Value("${server.port:8080}")
+    private String serverPort;
+
+    private String instanceId;
+
+    @PostConstruct
+    public void init() {
+        if (configuredInstanceId != null && !configuredInstanceId.isBlank()) {
+            this.instanceId = configuredInstanceId;
+        } else {
+            this.instanceId = getHostName() + ":" + serverPort;
+        }
+        log.info("Instance identity: {}", instanceId);
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    public String getServerPort() {
+        return serverPort;
+    }
+
+    /**
+     * 支持：Docker容器名 > 主机名 > IP地址
+     */
+    private String getHostName() {
+        String hostname = System.getenv("HOSTNAME");
+        if (hostname != null && !hostname.isEmpty()) {
+            return hostname;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            try {
+                return InetAddress.getLocalHost().getHostAddress();
+            } catch (Exception ex) {
+                return UUID.randomUUID().toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.zzk.config;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+
+/**
+ * Defaults for the in-process message bus (websocket.bus=LOCAL)
+ *
+ * A LOCAL instance does not use Redis, but the Redis auto-configuration still contributes a
+ * health indicator that reports DOWN when no server is reachable, which would mark the whole
+ * instance unhealthy. The indicator is switched off unless management.health.redis.enabled is
+ * set explicitly; the defaults are added last, so every other property source wins.
+ *
+ * Registered in META-INF/spring.factories.
+ */
+public class LocalBusEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+    private static final String PROPERTY_SOURCE = "websocketLocalBusDefaults";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        if (!"LOCAL".equalsIgnoreCase(environment.getProperty("websocket.bus", "REDIS"))) {
+            return;
+        }
+        environment.getPropertySources().addLast(new MapPropertySource(PROPERTY_SOURCE,
+                Map.of("management.health.redis.enabled", "false")));
+    }
+}
@@ -1,17 +1,24 @@
 package com.example.zzk.config;
 
 
+import com.example.zzk.redis.RedisMessagePublisher;
 import com.example.zzk.redis.RedisMessageSubscriber;
+import com.example.zzk.redis.RedisSessionDirectory;
+import com.example.zzk.redis.SubscriberDispatcher;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
 
 /**
  * Redis Configuration for WebSocket Message Distribution
@@ -50,29 +57,51 @@ public class RedisConfig {
      * Configure Redis message listener container
      * Subscribes to the WebSocket messages channel and forwards messages to the subscriber
      * 
+     * Only used with the pub/sub transport, the stream transport reads through RedisStreamConsumer,
+     * and not at all with the in-process message bus (websocket.bus=LOCAL).
+     * 
      * @param connectionFactory Redis connection factory
      * @param redisMessageSubscriber The subscriber that handles incoming messages
+     * @param redisSessionDirectory Provides this instance's own channel
+     * @param subscriberDispatcher Ordered, parallel delivery of received messages
      * @return Configured listener container
      */
     @Bean
+    @ConditionalOnExpression("'${websocket.bus:REDIS}' == 'REDIS' and '${websocket.transport:PUBSUB}' == 'PUBSUB'")
     public RedisMessageListenerContainer redisMessageListenerContainer(
             RedisConnectionFactory connectionFactory,
-            RedisMessageSubscriber redisMessageSubscriber) {
+            RedisMessageSubscriber redisMessageSubscriber,
+            RedisSessionDirectory redisSessionDirectory,
+            SubscriberDispatcher subscriberDispatcher) {
 
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
+        if (subscriberDispatcher.isParallel()) {
+            // One dedicated thread hands messages over in arrival order, off the Redis client's event loop;
+            // the dispatcher keeps per-user order and runs them in parallel
+            container.setTaskExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "ws-redis-listener");
+                t.setDaemon(true);
+                return t;
+            }));
+        }
 
         // Add message listener with custom handler
-        container.addMessageListener((message, pattern) -> {
+        MessageListener listener = (message, pattern) -> {
             try {
-                // Decode message body as UTF-8 string
-                String messageJson = new String(message.getBody(), StandardCharsets.UTF_8);
-                redisMessageSubscriber.receiveMessage(messageJson);
+                // The subscriber decodes the envelope straight from the body bytes
+                redisMessageSubscriber.receiveMessage(message.getBody());
             } catch (Exception e) {
                 log.error("Error processing Redis message: {}",
                         new String(message.getBody(), StandardCharsets.UTF_8), e);
             }
-        }, new PatternTopic("ws:messages"));  // Subscribe to WebSocket messages channel
+        };
+
+        // Subscribe to the WebSocket messages channel (broadcasts)
+        // and to this instance's own channel (single-user messages routed by the session directory)
+        container.addMessageListener(listener, List.of(
+                new ChannelTopic(RedisMessagePublisher.WEBSOCKET_TOPIC),
+                new ChannelTopic(redisSessionDirectory.localChannel())));
 
         return container;
     }
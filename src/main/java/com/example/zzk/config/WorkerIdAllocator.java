@@ -5,6 +5,7 @@ import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
@@ -28,12 +29,26 @@ public class WorkerIdAllocator {
     
     private int allocatedWorkerId = -1;
 
+    // 进程内消息总线（websocket.bus=LOCAL）为单节点部署，不依赖 Redis
+    @Value("${websocket.bus:REDIS}")
+    private String messageBus;
+
+    // workerId 是否为单节点模式下直接指定的（无需心跳续期和释放）
+    private boolean localWorkerId;
+
     /**
      * 启动时自动分配workerId
      * 核心原理：尝试SETNX所有可能的workerId，直到成功
      */
     @PostConstruct
     public void allocateWorkerId() {
+        if ("LOCAL".equalsIgnoreCase(messageBus)) {
+            // 单节点无需抢占，直接使用 0
+            this.allocatedWorkerId = 0;
+            this.localWorkerId = true;
+            log.info("✓ Single-node mode, using workerId: 0");
+            return;
+        }
         String instanceId = getInstanceId(); // 本机唯一标识
         
         for (int workerId = 0; workerId < MAX_WORKER_ID; workerId++) {
@@ -99,7 +114,7 @@ public class WorkerIdAllocator {
      */
     @PreDestroy
     public void releaseWorkerId() {
-        if (allocatedWorkerId < 0) return;
+        if (allocatedWorkerId < 0 || localWorkerId) return;
         
         try {
             String key = "snowflake:worker:" + allocatedWorkerId;
@@ -0,0 +1,40 @@
+package com.example.zzk.controller;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.example.zzk.result.Result;
+import com.example.zzk.websocket.presence.PresenceService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 用户在线状态查询，数据来自本实例缓存，不访问 Redis
+ */
+@RestController
+@RequestMapping("/presence")
+@RequiredArgsConstructor
+public class PresenceController {
+
+    private final PresenceService presenceService;
+
+    /**
+     * 查询用户是否在线（任意实例）
+     */
+    @GetMapping("/online/{userId}")
+    public Result<JSONObject> isOnline(@PathVariable String userId) {
+        JSONObject data = new JSONObject();
+        data.put("userId", userId);
+        data.put("online", presenceService.isOnline(userId));
+        return Result.success(data);
+    }
+
+    /**
+     * 集群在线用户数
+     */
+    @GetMapping("/count")
+    public Result<Integer> onlineCount() {
+        return Result.success(presenceService.onlineCount());
+    }
+}
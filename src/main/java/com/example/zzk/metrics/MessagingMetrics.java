@@ -0,0 +1,200 @@
+package com.example.zzk.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Metrics of the WebSocket / Redis messaging pipeline
+ *
+ * Exposed through /actuator/metrics and /actuator/prometheus. Components that own the
+ * measured state register their gauges here, the hot paths only touch pre-built meters.
+ */
+@Component
+public class MessagingMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Timer publishBroadcastTimer;
+    private final Timer publishSingleUserTimer;
+    private final DistributionSummary publishBatchSize;
+    private final Timer decodeTimer;
+    private final Timer fanoutTimer;
+    private final DistributionSummary fanoutRecipients;
+    private final Counter sendRejected;
+    private final Timer streamLag;
+    private final DistributionSummary streamBatchSize;
+    private final Timer dispatchWait;
+    private final Timer compressTimer;
+    private final Timer decompressTimer;
+    private final DistributionSummary compressionRatio;
+    private final Counter compressionBytesIn;
+    private final Counter compressionBytesOut;
+    private final Counter duplicatesDropped;
+
+    public MessagingMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.publishBroadcastTimer = publishTimer(registry, "broadcast");
+        this.publishSingleUserTimer = publishTimer(registry, "single_user");
+        this.publishBatchSize = DistributionSummary.builder("ws.redis.publish.batch.size")
+                .description("Messages sent to Redis in one pipelined publish")
+                .register(registry);
+        this.decodeTimer = Timer.builder("ws.redis.decode")
+                .description("Time to decode a message received from Redis")
+                .register(registry);
+        this.fanoutTimer = Timer.builder("ws.fanout.duration")
+                .description("Time from the start of a local broadcast until the last recipient was reached")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(10_000))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry);
+        this.fanoutRecipients = DistributionSummary.builder("ws.fanout.recipients")
+                .description("Number of local sessions reached by one broadcast")
+                .register(registry);
+        this.sendRejected = Counter.builder("ws.send.failures")
+                .description("Frames that could not be delivered to a session")
+                .tag("reason", "rejected")
+                .register(registry);
+        this.streamLag = Timer.builder("ws.stream.lag")
+                .description("Time from XADD until this instance read the stream entry")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.streamBatchSize = DistributionSummary.builder("ws.stream.batch.size")
+                .description("Stream entries returned by one read")
+                .register(registry);
+        this.dispatchWait = Timer.builder("ws.dispatch.latency")
+                .description("Time a received message waited in its dispatch lane")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.compressTimer = Timer.builder("ws.compression.time")
+                .description("Time to compress or decompress a Redis payload")
+                .tag("op", "compress")
+                .register(registry);
+        this.decompressTimer = Timer.builder("ws.compression.time")
+                .description("Time to compress or decompress a Redis payload")
+                .tag("op", "decompress")
+                .register(registry);
+        this.compressionRatio = DistributionSummary.builder("ws.compression.ratio")
+                .description("Compressed size divided by original size of compressed Redis payloads")
+                .register(registry);
+        this.compressionBytesIn = Counter.builder("ws.compression.bytes")
+                .description("Bytes of Redis payloads before and after compression")
+                .tag("stage", "original")
+                .register(registry);
+        this.compressionBytesOut = Counter.builder("ws.compression.bytes")
+                .description("Bytes of Redis payloads before and after compression")
+                .tag("stage", "compressed")
+                .register(registry);
+        this.duplicatesDropped = Counter.builder("ws.redis.duplicates")
+                .description("Messages received from Redis more than once and dropped")
+                .register(registry);
+    }
+
+    private static Timer publishTimer(MeterRegistry registry, String type) {
+        return Timer.builder("ws.redis.publish")
+                .description("Time from submitting a message until Redis accepted it")
+                .tag("type", type)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Register a gauge over state owned by a long-lived component
+     *
+     * @param name Meter name
+     * @param description Meter description
+     * @param owner The owning component, must stay strongly reachable (Spring singleton)
+     * @param value Reads the current value from the owner
+     */
+    public <T> void gauge(String name, String description, T owner, ToDoubleFunction<T> value) {
+        Gauge.builder(name, owner, value)
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * Register a monotonic counter over state owned by a long-lived component
+     *
+     * @param name Meter name
+     * @param description Meter description
+     * @param owner The owning component, must stay strongly reachable (Spring singleton)
+     * @param value Reads the current count from the owner
+     */
+    public <T> void counter(String name, String description, T owner, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, owner, value)
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * Register a monotonic counter over state owned by a long-lived component
+     *
+     * @param name Meter name
+     * @param description Meter description
+     * @param reason Value of the "reason" tag
+     * @param owner The owning component, must stay strongly reachable (Spring singleton)
+     * @param value Reads the current count from the owner
+     */
+    public <T> void counter(String name, String description, String reason, T owner, ToDoubleFunction<T> value) {
+        FunctionCounter.builder(name, owner, value)
+                .description(description)
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    public void recordPublish(boolean singleUser, long nanos) {
+        (singleUser ? publishSingleUserTimer : publishBroadcastTimer).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordPublishBatch(int size) {
+        publishBatchSize.record(size);
+    }
+
+    public void recordDecode(long nanos) {
+        decodeTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordFanout(int recipients, long lastRecipientNanos) {
+        fanoutTimer.record(lastRecipientNanos, TimeUnit.NANOSECONDS);
+        fanoutRecipients.record(recipients);
+    }
+
+    public void recordSendRejected() {
+        sendRejected.increment();
+    }
+
+    public void recordStreamLag(long millis) {
+        streamLag.record(Math.max(0, millis), TimeUnit.MILLISECONDS);
+    }
+
+    public void recordStreamBatch(int size) {
+        streamBatchSize.record(size);
+    }
+
+    public void recordDispatchWait(long nanos) {
+        dispatchWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCompression(int originalBytes, int compressedBytes, long nanos) {
+        compressTimer.record(nanos, TimeUnit.NANOSECONDS);
+        compressionRatio.record((double) compressedBytes / originalBytes);
+        compressionBytesIn.increment(originalBytes);
+        compressionBytesOut.increment(compressedBytes);
+    }
+
+    public void recordDecompression(long nanos) {
+        decompressTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordDuplicate() {
+        duplicatesDropped.increment();
+    }
+}
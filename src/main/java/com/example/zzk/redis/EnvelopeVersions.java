@@ -0,0 +1,165 @@
+package com.example.zzk.redis;
+
+import com.example.zzk.config.InstanceIdentity;
+import com.example.zzk.redis.codec.MessageCodecType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Negotiates the envelope version used for publishing, so v1 and v2 instances can coexist
+ *
+ * Every instance announces the highest version it can read in the HASH ws:envelope:versions
+ * (instance ID -> "version@timestamp") and refreshes it periodically. An announcement older than
+ * websocket.envelope.ttl-ms belongs to an instance that is gone and is removed, and the hash
+ * itself expires when no instance refreshes it. An instance publishes in its configured
+ * websocket.codec only when every announced instance reads at least that version, otherwise in
+ * the highest version all of them read; a downgrade is logged as a warning naming the instances
+ * that caused it. Every instance decodes all formats it knows, so it is always safe to receive.
+ *
+ * The decision rests on the announcements alone and instances from before v2 do not announce
+ * themselves, so they would be missed. websocket.codec therefore defaults to LEGACY, which is
+ * what they read; switch to JSON or JSONB once every instance of the cluster has been upgraded.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "websocket.bus", havingValue = "REDIS", matchIfMissing = true)
+public class EnvelopeVersions {
+
+    private static final String VERSIONS_KEY = "ws:envelope:versions";
+
+    /** Format this instance writes once every instance reads it, LEGACY forces the v1 format */
+    @Value("${websocket.codec:LEGACY}")
+    private MessageCodecType codec;
+
+    @Value("${websocket.envelope.refresh-ms:10000}")
+    private long refreshMillis;
+
+    /** Age after which an announcement no longer counts */
+    @Value("${websocket.envelope.ttl-ms:30000}")
+    private long ttlMillis;
+
+    @Value("${websocket.transport:PUBSUB}")
+    private MessageTransport transport;
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final InstanceIdentity instanceIdentity;
+
+    /** Version publishers use right now, starts with the format everybody reads */
+    private volatile int current = MessageCodecType.LEGACY.getVersion();
+
+    /** Highest version every live instance reads */
+    private volatile int clusterReadVersion = MessageCodecType.LEGACY.getVersion();
+
+    /** Highest version this instance writes */
+    private int maxWriteVersion;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ws-envelope-versions");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public EnvelopeVersions(StringRedisTemplate redisTemplate, InstanceIdentity instanceIdentity) {
+        this.redisTemplate = redisTemplate;
+        this.instanceIdentity = instanceIdentity;
+    }
+
+    @PostConstruct
+    public void init() {
+        maxWriteVersion = codec.getVersion();
+        if (transport == MessageTransport.STREAM && !codec.isText()) {
+            log.warn("Codec {} is binary, stream entries are read as text; writing {} instead",
+                    codec, MessageCodecType.JSON);
+            maxWriteVersion = MessageCodecType.JSON.getVersion();
+        }
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        try {
+            redisTemplate.opsForHash().delete(VERSIONS_KEY, instanceIdentity.getInstanceId());
+        } catch (Exception e) {
+            log.warn("Failed to withdraw envelope version of {}", instanceIdentity.getInstanceId(), e);
+        }
+    }
+
+    /**
+     * @return Envelope version to publish with
+     */
+    public int current() {
+        return current;
+    }
+
+    /**
+     * Compressed payloads are binary, the stream transport reads entries as text
+     *
+     * @return Whether payloads may be sent compressed, see PayloadCompressor
+     */
+    public boolean compressionAllowed() {
+        return transport == MessageTransport.PUBSUB && clusterReadVersion >= PayloadCompressor.VERSION;
+    }
+
+    /**
+     * Announce this instance and recompute the version, runs on the scheduler thread
+     */
+    private void refresh() {
+        try {
+            long now = System.currentTimeMillis();
+            redisTemplate.opsForHash().put(VERSIONS_KEY, instanceIdentity.getInstanceId(), MessageEnvelope.LATEST + "@" + now);
+            redisTemplate.expire(VERSIONS_KEY, ttlMillis, TimeUnit.MILLISECONDS);
+
+            long staleBefore = now - ttlMillis;
+            int readable = MessageEnvelope.LATEST;
+            int live = 0;
+            List<Object> oldest = new ArrayList<>();
+            for (Map.Entry<Object, Object> entry : redisTemplate.opsForHash().entries(VERSIONS_KEY).entrySet()) {
+                String value = String.valueOf(entry.getValue());
+                int at = value.indexOf('@');
+                long announced = at < 0 ? 0 : Long.parseLong(value.substring(at + 1));
+                if (announced < staleBefore) {
+                    redisTemplate.opsForHash().delete(VERSIONS_KEY, entry.getKey());
+                    continue;
+                }
+                live++;
+                int announcedVersion = Integer.parseInt(at < 0 ? value : value.substring(0, at));
+                if (announcedVersion < readable) {
+                    readable = announcedVersion;
+                    oldest.clear();
+                }
+                if (announcedVersion == readable) {
+                    oldest.add(entry.getKey());
+                }
+            }
+            clusterReadVersion = readable;
+
+            int version = Math.min(maxWriteVersion, readable);
+            if (version < current) {
+                log.warn("Envelope version DOWNGRADED from v{} to v{} ({}): instances {} only read v{}, {} instances announced",
+                        current, version, MessageCodecType.ofVersion(version), oldest, readable, live);
+                current = version;
+            } else if (version != current) {
+                log.info("Envelope version changed from v{} to v{} ({}, {} instances announced)",
+                        current, version, MessageCodecType.ofVersion(version), live);
+                current = version;
+            }
+        } catch (Exception e) {
+            // Keep the last negotiated version, the next refresh retries
+            log.warn("Failed to negotiate envelope version", e);
+        }
+    }
+}
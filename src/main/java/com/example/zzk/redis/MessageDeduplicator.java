@@ -0,0 +1,124 @@
+package com.example.zzk.redis;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Window of the most recently received message IDs, used to drop duplicate deliveries
+ *
+ * Retried or repeated publishes carry the same messageId; a message whose ID is among the last
+ * websocket.dedup.window-size IDs seen is a duplicate. Memory is fixed: a ring holds the IDs in
+ * arrival order and an open-addressing hash table at most half full indexes them. Adding an ID
+ * evicts the oldest one from both, so every check costs one probe sequence, no allocation and no
+ * expiry sweep.
+ *
+ * Messages without an ID (in-process bus, instances publishing before IDs existed) are never
+ * treated as duplicates.
+ */
+@Slf4j
+@Component
+public class MessageDeduplicator {
+
+    /** Free table slot and free ring entry, snowflake IDs are positive */
+    private static final long EMPTY = 0L;
+
+    @Value("${websocket.dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${websocket.dedup.window-size:65536}")
+    private int windowSize;
+
+    /** Window IDs in arrival order, guarded by this */
+    private long[] ring;
+    private int ringMask;
+    private int ringPosition;
+
+    /** Linear-probing hash set over the IDs in the ring, guarded by this */
+    private long[] table;
+    private int tableMask;
+
+    @PostConstruct
+    public void init() {
+        int size = Integer.highestOneBit(Math.max(2, windowSize - 1)) << 1;
+        ring = new long[size];
+        ringMask = size - 1;
+        table = new long[size * 2];
+        tableMask = table.length - 1;
+        log.info("Message deduplication initialized: enabled={}, window={} IDs", enabled, size);
+    }
+
+    /**
+     * Record a received message ID
+     *
+     * @param messageId The ID, may be null
+     * @return False if the ID is in the window, i.e. the message was already received
+     */
+    public synchronized boolean firstSeen(Long messageId) {
+        if (!enabled || messageId == null || messageId == EMPTY) {
+            return true;
+        }
+        long id = messageId;
+        int slot = slotOf(id);
+        while (table[slot] != EMPTY) {
+            if (table[slot] == id) {
+                return false;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+
+        long evicted = ring[ringPosition];
+        if (evicted != EMPTY) {
+            remove(evicted);
+            // Removal may have freed a slot earlier in this ID's probe run
+            slot = slotOf(id);
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & tableMask;
+            }
+        }
+        table[slot] = id;
+        ring[ringPosition] = id;
+        ringPosition = (ringPosition + 1) & ringMask;
+        return true;
+    }
+
+    /**
+     * Remove an ID and shift the following entries of its probe run back, so lookups never
+     * need tombstones
+     */
+    private void remove(long id) {
+        int free = slotOf(id);
+        while (table[free] != id) {
+            if (table[free] == EMPTY) {
+                return;
+            }
+            free = (free + 1) & tableMask;
+        }
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & tableMask;
+            long candidate = table[slot];
+            if (candidate == EMPTY) {
+                break;
+            }
+            int home = slotOf(candidate);
+            // The candidate may move to the free slot unless its home lies cyclically in (free, slot]
+            boolean stays = free <= slot ? free < home && home <= slot : free < home || home <= slot;
+            if (!stays) {
+                table[free] = candidate;
+                free = slot;
+            }
+        }
+        table[free] = EMPTY;
+    }
+
+    /**
+     * @return Home slot of an ID in the hash table, package-private for tests
+     */
+    int slotOf(long id) {
+        // Snowflake IDs share their high bits within a time window, mix before masking
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & tableMask;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.zzk.redis;
+
+import com.alibaba.fastjson2.JSON;
+import com.example.zzk.redis.codec.JsonEnvelopeCodec;
+import com.example.zzk.redis.codec.JsonbCodec;
+import com.example.zzk.redis.codec.LegacyJsonCodec;
+import com.example.zzk.redis.codec.MessageCodec;
+import com.example.zzk.redis.codec.MessageCodecType;
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+
+/**
+ * Wire format of messages sent through Redis
+ *
+ * Payloads are written by the {@link MessageCodec} of the negotiated version and read by the
+ * codec their first byte names: '{' is the legacy JSON object, otherwise the byte is the
+ * {@link MessageCodecType#getMarker()} of the format. Every instance reads all formats it
+ * knows, so instances writing different formats coexist in one cluster.
+ */
+public final class MessageEnvelope {
+
+    /** Highest format version this instance reads, including compressed payloads */
+    public static final int LATEST = PayloadCompressor.VERSION;
+
+    private static final MessageCodec LEGACY_CODEC = new LegacyJsonCodec();
+
+    private static final JsonEnvelopeCodec JSON_CODEC = new JsonEnvelopeCodec();
+
+    private static final MessageCodec JSONB_CODEC = new JsonbCodec();
+
+    private MessageEnvelope() {
+    }
+
+    /**
+     * @param type A format
+     * @return The codec writing that format
+     */
+    public static MessageCodec codec(MessageCodecType type) {
+        switch (type) {
+            case JSONB:
+                return JSONB_CODEC;
+            case JSON:
+                return JSON_CODEC;
+            case LEGACY:
+            default:
+                return LEGACY_CODEC;
+        }
+    }
+
+    /**
+     * @param message The message to send
+     * @param version Format version to write
+     * @return The payload
+     */
+    public static byte[] encode(WebSocketMessageDTO message, int version) {
+        MessageCodecType type = MessageCodecType.ofVersion(version);
+        return codec(type != null ? type : MessageCodecType.LEGACY).encode(message);
+    }
+
+    /**
+     * Decode a payload in any known format straight from the message body
+     *
+     * @param body The payload
+     * @return The message
+     */
+    public static WebSocketMessageDTO decode(byte[] body) {
+        if (body.length > 0 && body[0] == MessageCodecType.JSONB.getMarker()) {
+            return JSONB_CODEC.decode(body);
+        }
+        if (body.length > 0 && body[0] == MessageCodecType.JSON.getMarker()) {
+            return JSON_CODEC.decode(body);
+        }
+        return LEGACY_CODEC.decode(body);
+    }
+
+    /**
+     * Decode a payload that was already read as a string, e.g. a stream entry
+     *
+     * Only text formats can arrive this way.
+     *
+     * @param payload The payload
+     * @return The message
+     */
+    public static WebSocketMessageDTO decode(String payload) {
+        if (!payload.isEmpty() && payload.charAt(0) == MessageCodecType.JSON.getMarker()) {
+            return JSON_CODEC.decode(payload);
+        }
+        return JSON.parseObject(payload, WebSocketMessageDTO.class);
+    }
+}
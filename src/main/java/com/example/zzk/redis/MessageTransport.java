@@ -0,0 +1,13 @@
+package com.example.zzk.redis;
+
+/**
+ * How messages travel between instances
+ */
+public enum MessageTransport {
+
+    /** Redis pub/sub channels, fire-and-forget */
+    PUBSUB,
+
+    /** Redis Streams, every instance reads from its own cursor and can catch up after a restart */
+    STREAM
+}
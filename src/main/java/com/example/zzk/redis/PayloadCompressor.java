@@ -0,0 +1,133 @@
+package com.example.zzk.redis;
+
+import com.example.zzk.metrics.MessagingMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Transparent compression of large Redis payloads
+ *
+ * Payloads of at least websocket.compression.threshold-bytes are deflated and wrapped as
+ * [0x04][original length, 4 bytes big-endian][deflate data]. The wrapped payload can be any
+ * codec's output, the receiver inflates it and decodes it as usual. Small payloads, and payloads
+ * that do not shrink, are sent unchanged, so small messages pay nothing but a length check.
+ *
+ * Off by default: instances from before v4 cannot inflate and do not announce themselves, see
+ * EnvelopeVersions; enable it once every instance of the cluster has been upgraded.
+ *
+ * Deflaters / inflaters are kept per thread, payloads are (de)compressed on the publisher and
+ * listener threads.
+ */
+@Slf4j
+@Component
+public class PayloadCompressor {
+
+    /** First byte of a compressed payload */
+    public static final byte MARKER = 0x04;
+
+    /** Format version of readers that understand compressed payloads */
+    public static final int VERSION = 4;
+
+    private static final int HEADER_LENGTH = 5;
+
+    @Value("${websocket.compression.enabled:false}")
+    private boolean enabled;
+
+    @Value("${websocket.compression.threshold-bytes:8192}")
+    private int thresholdBytes;
+
+    @Value("${websocket.compression.level:1}")
+    private int level;
+
+    private final MessagingMetrics metrics;
+
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    public PayloadCompressor(MessagingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param payload An encoded message
+     * @return The compressed payload, or the payload itself if it is small or does not shrink
+     */
+    public byte[] compress(byte[] payload) {
+        if (!enabled || payload.length < thresholdBytes) {
+            return payload;
+        }
+        long start = System.nanoTime();
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+
+        byte[] out = new byte[HEADER_LENGTH + payload.length];
+        int length = HEADER_LENGTH;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        if (!deflater.finished()) {
+            // Did not shrink, not worth the receiver's time
+            return payload;
+        }
+        out[0] = MARKER;
+        writeInt(out, 1, payload.length);
+
+        byte[] compressed = Arrays.copyOf(out, length);
+        metrics.recordCompression(payload.length, compressed.length, System.nanoTime() - start);
+        return compressed;
+    }
+
+    /**
+     * @param body A received payload
+     * @return The inflated payload, or the body itself if it is not compressed
+     */
+    public byte[] decompress(byte[] body) {
+        if (body.length < HEADER_LENGTH || body[0] != MARKER) {
+            return body;
+        }
+        long start = System.nanoTime();
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(body, HEADER_LENGTH, body.length - HEADER_LENGTH);
+
+        byte[] payload = new byte[readInt(body, 1)];
+        try {
+            int length = 0;
+            while (length < payload.length && !inflater.finished()) {
+                int n = inflater.inflate(payload, length, payload.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != payload.length) {
+                throw new IllegalArgumentException("Compressed payload is truncated: " + length + " of " + payload.length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed payload", e);
+        }
+        metrics.recordDecompression(System.nanoTime() - start);
+        return payload;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.zzk.redis;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-user offline mailbox for single-user messages
+ *
+ * Keys:
+ * - ws:mailbox:seq:{userId}  counter handing out the user's message sequence numbers
+ * - ws:mailbox:{userId}      ZSET of the latest messages, score = seq, bounded and with a TTL
+ *
+ * Every single-user message gets the next sequence number of its target user and is kept
+ * in the mailbox until it is pushed out by newer messages or expires. A client reconnecting
+ * with the last seq it saw gets exactly the gap replayed instead of reloading everything.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "websocket.bus", havingValue = "REDIS", matchIfMissing = true)
+public class RedisMailbox {
+
+    private static final String SEQ_KEY_PREFIX = "ws:mailbox:seq:";
+    private static final String MAILBOX_KEY_PREFIX = "ws:mailbox:";
+
+    /**
+     * KEYS[1] seq counter, KEYS[2] mailbox; ARGV[1] entry JSON, ARGV[2] max entries,
+     * ARGV[3] mailbox TTL seconds, ARGV[4] counter TTL seconds. Returns the new seq.
+     */
+    private static final RedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(
+            "local seq = redis.call('INCR', KEYS[1]) " +
+            "redis.call('EXPIRE', KEYS[1], ARGV[4]) " +
+            "redis.call('ZADD', KEYS[2], seq, seq .. ':' .. ARGV[1]) " +
+            "redis.call('ZREMRANGEBYRANK', KEYS[2], 0, -(tonumber(ARGV[2]) + 1)) " +
+            "redis.call('EXPIRE', KEYS[2], ARGV[3]) " +
+            "return seq",
+            Long.class);
+
+    /**
+     * KEYS[1] seq counter, KEYS[2] mailbox; ARGV[1] last seq seen by the client.
+     * Returns [current seq, oldest stored seq or 0, replay start, entries...].
+     * A last seq beyond the counter means the counter was reset, everything stored is replayed.
+     */
+    private static final RedisScript<List> REPLAY_SCRIPT = new DefaultRedisScript<>(
+            "local current = tonumber(redis.call('GET', KEYS[1]) or '0') " +
+            "local from = tonumber(ARGV[1]) " +
+            "if from > current then from = 0 end " +
+            "local oldest = redis.call('ZRANGE', KEYS[2], 0, 0, 'WITHSCORES') " +
+            "local result = {tostring(current), oldest[2] or '0', tostring(from)} " +
+            "local entries = redis.call('ZRANGEBYSCORE', KEYS[2], '(' .. from, '+inf') " +
+            "for i = 1, #entries do result[#result + 1] = entries[i] end " +
+            "return result",
+            List.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Value("${websocket.mailbox.enabled:true}")
+    private boolean enabled;
+
+    @Value("${websocket.mailbox.max-messages:200}")
+    private int maxMessages;
+
+    @Value("${websocket.mailbox.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    /** The counter outlives the mailbox so sequence numbers do not restart after a quiet period */
+    @Value("${websocket.mailbox.seq-ttl-seconds:604800}")
+    private long seqTtlSeconds;
+
+    private final AtomicInteger replayThreads = new AtomicInteger();
+
+    /** Replays run off the container threads, a reconnect storm must not block handshakes */
+    private final ExecutorService replayExecutor = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "ws-mailbox-" + replayThreads.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        replayExecutor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Store several single-user messages in one pipelined round trip
+     *
+     * The append script is sent with EVAL, a NOSCRIPT reply cannot be retried inside a pipeline.
+     *
+     * @param messages Target user, action and data JSON of each message
+     * @return The seq of each message in order, null entries if the mailbox is disabled or unavailable
+     */
+    public List<Long> appendAll(List<WebSocketMessageDTO> messages) {
+        List<Long> seqs = new ArrayList<>(Collections.nCopies(messages.size(), (Long) null));
+        if (!enabled || messages.isEmpty()) {
+            return seqs;
+        }
+        String script = APPEND_SCRIPT.getScriptAsString();
+        String max = String.valueOf(maxMessages);
+        String ttl = String.valueOf(ttlSeconds);
+        String seqTtl = String.valueOf(seqTtlSeconds);
+        try {
+            List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection stringConnection = (StringRedisConnection) connection;
+                for (WebSocketMessageDTO message : messages) {
+                    if (message.getTargetUserId() == null) {
+                        continue;
+                    }
+                    String userId = message.getTargetUserId();
+                    stringConnection.eval(script, ReturnType.INTEGER, 2, SEQ_KEY_PREFIX + userId, MAILBOX_KEY_PREFIX + userId,
+                            entryJson(message.getAction(), message.getDataJson()), max, ttl, seqTtl);
+                }
+                return null;
+            });
+            int r = 0;
+            for (int i = 0; i < messages.size() && r < results.size(); i++) {
+                if (messages.get(i).getTargetUserId() != null && results.get(r++) instanceof Long seq) {
+                    seqs.set(i, seq);
+                }
+            }
+        } catch (Exception e) {
+            // Live delivery must not depend on the mailbox
+            log.error("Failed to store {} messages in mailboxes", messages.size(), e);
+        }
+        return seqs;
+    }
+
+    private static String entryJson(String action, String dataJson) {
+        JSONObject entry = new JSONObject();
+        entry.put("action", action);
+        entry.put("dataJson", dataJson);
+        return entry.toJSONString();
+    }
+
+    /**
+     * Read the messages a client missed, asynchronously
+     *
+     * @param userId The user ID
+     * @param lastSeq The last seq the client received
+     * @return The stored messages after lastSeq, in order
+     */
+    public CompletableFuture<Replay> replay(String userId, long lastSeq) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<?> result = redisTemplate.execute(REPLAY_SCRIPT,
+                    List.of(SEQ_KEY_PREFIX + userId, MAILBOX_KEY_PREFIX + userId), String.valueOf(lastSeq));
+            if (result == null || result.size() < 3) {
+                return new Replay(lastSeq, lastSeq, false, Collections.emptyList());
+            }
+            long current = Long.parseLong(String.valueOf(result.get(0)));
+            long oldest = Long.parseLong(String.valueOf(result.get(1)));
+            long from = Long.parseLong(String.valueOf(result.get(2)));
+
+            List<Entry> entries = new ArrayList<>(result.size() - 3);
+            for (int i = 3; i < result.size(); i++) {
+                String raw = String.valueOf(result.get(i));
+                int colon = raw.indexOf(':');
+                JSONObject entry = JSONObject.parseObject(raw.substring(colon + 1));
+                entries.add(new Entry(Long.parseLong(raw.substring(0, colon)), entry.getString("action"), entry.getString("dataJson")));
+            }
+            // Messages between the client's last seq and the oldest one still stored are lost
+            boolean truncated = from != lastSeq || (current > from && (oldest == 0 || oldest > from + 1));
+            return new Replay(from, current, truncated, entries);
+        }, replayExecutor);
+    }
+
+    /**
+     * A stored message
+     */
+    public record Entry(long seq, String action, String dataJson) {
+    }
+
+    /**
+     * Result of a replay
+     *
+     * @param fromSeq Replay started after this seq
+     * @param currentSeq Latest seq assigned to the user
+     * @param truncated True if messages in the gap are no longer stored, the client has to reload
+     * @param entries Stored messages after fromSeq, in order
+     */
+    public record Replay(long fromSeq, long currentSeq, boolean truncated, List<Entry> entries) {
+    }
+}
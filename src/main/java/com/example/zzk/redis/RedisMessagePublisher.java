@@ -1,44 +1,399 @@
 package com.example.zzk.redis;
 
 
-import com.alibaba.fastjson2.JSONObject;
+import com.example.zzk.config.RedisDistributedIdGenerator;
+import com.example.zzk.metrics.MessagingMetrics;
+import com.example.zzk.websocket.bus.MessageBus;
 import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * Redis Message Publisher for WebSocket Messages
  * 
  * This component publishes WebSocket messages to a Redis channel.
  * All application instances subscribe to this channel, enabling
- * cross-instance message distribution.
+ * cross-instance message distribution. Single-user messages are routed
+ * through the RedisSessionDirectory to per-instance channels instead.
+ * 
+ * With websocket.transport=STREAM the same routing uses Redis Streams instead of
+ * channels, see RedisStreamConsumer.
+ * 
+ * Messages are written in the envelope version negotiated by EnvelopeVersions,
+ * see MessageEnvelope for the formats. Large payloads are compressed by PayloadCompressor.
+ * Every message is stamped with a snowflake messageId, which subscribers use to drop
+ * duplicates (see MessageDeduplicator).
+ * 
+ * Publishing is asynchronous: callers queue messages and a single publisher thread
+ * sends everything queued meanwhile in pipelined round trips, so a bulk job of
+ * thousands of messages costs a handful of round trips instead of thousands.
  */
 @Slf4j
 @Component
-public class RedisMessagePublisher {
+@ConditionalOnProperty(name = "websocket.bus", havingValue = "REDIS", matchIfMissing = true)
+public class RedisMessagePublisher implements MessageBus {
 
     /** Redis channel name for WebSocket messages */
     public static final String WEBSOCKET_TOPIC = "ws:messages";
 
+    /** Redis stream carrying broadcasts in stream transport mode */
+    public static final String WEBSOCKET_STREAM = "ws:stream:messages";
+
+    /** Field of a stream entry holding the message JSON */
+    public static final String STREAM_FIELD = "m";
+
     private final RedisTemplate<String, String> redisTemplate;
 
-    public RedisMessagePublisher(@Qualifier("websocketRedisTemplate") RedisTemplate<String, String> redisTemplate) {
+    private final RedisSessionDirectory sessionDirectory;
+
+    private final MessagingMetrics metrics;
+
+    private final RedisMailbox mailbox;
+
+    private final EnvelopeVersions envelopeVersions;
+
+    private final PayloadCompressor compressor;
+
+    private final RedisDistributedIdGenerator idGenerator;
+
+    /** Route SINGLE_USER messages only to the instances holding the target user's sessions */
+    @Value("${websocket.directory.enabled:true}")
+    private boolean directoryRouting;
+
+    @Value("${websocket.transport:PUBSUB}")
+    private MessageTransport transport;
+
+    /** Approximate length streams are trimmed to on every XADD */
+    @Value("${websocket.stream.max-len:100000}")
+    private long streamMaxLen;
+
+    /** Most messages sent in one pipeline */
+    @Value("${websocket.publish.max-batch:512}")
+    private int maxBatch;
+
+    /** Longest the publisher waits for a batch to fill up under load */
+    @Value("${websocket.publish.max-linger-us:500}")
+    private long maxLingerMicros;
+
+    @Value("${websocket.publish.queue-capacity:100000}")
+    private int queueCapacity;
+
+    private static final byte[] TOPIC_KEY = bytes(WEBSOCKET_TOPIC);
+
+    private static final byte[] STREAM_KEY = bytes(WEBSOCKET_STREAM);
+
+    private static final byte[] STREAM_FIELD_KEY = bytes(STREAM_FIELD);
+
+    private BlockingQueue<PendingPublish> queue;
+
+    private long maxLingerNanos;
+
+    private volatile boolean running;
+
+    private Thread flusher;
+
+    public RedisMessagePublisher(@Qualifier("websocketRedisTemplate") RedisTemplate<String, String> redisTemplate,
+                                 RedisSessionDirectory sessionDirectory,
+                                 MessagingMetrics metrics,
+                                 RedisMailbox mailbox,
+                                 EnvelopeVersions envelopeVersions,
+                                 PayloadCompressor compressor,
+                                 RedisDistributedIdGenerator idGenerator) {
         this.redisTemplate = redisTemplate;
+        this.sessionDirectory = sessionDirectory;
+        this.metrics = metrics;
+        this.mailbox = mailbox;
+        this.envelopeVersions = envelopeVersions;
+        this.compressor = compressor;
+        this.idGenerator = idGenerator;
+    }
+
+    @PostConstruct
+    public void start() {
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        maxLingerNanos = TimeUnit.MICROSECONDS.toNanos(maxLingerMicros);
+        running = true;
+        flusher = new Thread(this::flushLoop, "ws-publisher");
+        flusher.setDaemon(true);
+        flusher.start();
+        metrics.gauge("ws.redis.publish.queue", "Messages waiting to be published to Redis", this,
+                publisher -> publisher.queue.size());
+        log.info("Redis publisher started: maxBatch={}, maxLinger={} us, queueCapacity={}",
+                maxBatch, maxLingerMicros, queueCapacity);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (flusher != null) {
+            try {
+                // Messages already queued are still sent
+                flusher.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     /**
-     * Publish a WebSocket message to Redis
-     * 
+     * Publish a WebSocket message to Redis and wait until Redis accepted it
+     *
      * @param message The message DTO to publish
+     * @see #publishAsync(WebSocketMessageDTO)
      */
     public void publish(WebSocketMessageDTO message) {
-        // Serialize message to JSON string manually
-        String jsonMessage = JSONObject.toJSONString(message);
+        publishAsync(message).join();
+    }
+
+    /**
+     * Publish a WebSocket message to Redis without waiting for it
+     * 
+     * Broadcasts go to the shared channel.
+     * Single-user messages are stored in the target user's mailbox first, which assigns their seq, then go to the
+     * per-instance channels of the instances that hold the target user's sessions.
+     * A message whose originInstance is this instance is not routed back here.
+     * 
+     * Messages are sent by the publisher thread, together with the other messages
+     * queued meanwhile, in pipelined round trips.
+     * 
+     * @param message The message DTO to publish
+     * @return Completes once Redis accepted the message, exceptionally if it could not be sent
+     */
+    @Override
+    public CompletableFuture<Void> publishAsync(WebSocketMessageDTO message) {
+        PendingPublish pending = new PendingPublish(message, System.nanoTime(), new CompletableFuture<>());
+        if (!queue.offer(pending)) {
+            pending.future.completeExceptionally(
+                    new RejectedExecutionException("Redis publish queue is full (" + queueCapacity + ")"));
+        }
+        return pending.future;
+    }
+
+    /**
+     * Publish many messages, e.g. one notification per user of a bulk job
+     *
+     * @param messages The message DTOs to publish
+     * @return Completes once Redis accepted all messages, exceptionally if any could not be sent
+     */
+    @Override
+    public CompletableFuture<Void> publishAll(Collection<WebSocketMessageDTO> messages) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[messages.size()];
+        int i = 0;
+        for (WebSocketMessageDTO message : messages) {
+            PendingPublish pending = new PendingPublish(message, System.nanoTime(), new CompletableFuture<>());
+            try {
+                // A bulk job waits for room instead of failing halfway
+                queue.put(pending);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.future.completeExceptionally(e);
+            }
+            futures[i++] = pending.future;
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * This instance's sessions are served by the publishing handler, see WebsocketHandler
+     */
+    @Override
+    public boolean deliversLocally() {
+        return false;
+    }
+
+    private void flushLoop() {
+        List<PendingPublish> batch = new ArrayList<>(maxBatch);
+        int lastBatchSize = 0;
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingPublish first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    lastBatchSize = 0;
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+                long linger = lingerNanos(lastBatchSize);
+                if (batch.size() < maxBatch && linger > 0) {
+                    LockSupport.parkNanos(linger);
+                    queue.drainTo(batch, maxBatch - batch.size());
+                }
+                lastBatchSize = batch.size();
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Unexpected error in Redis publisher", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Adaptive window: a lone message goes out at once, under load the publisher waits
+     * up to maxLinger for more, proportionally to how full the previous batch was
+     */
+    private long lingerNanos(int lastBatchSize) {
+        if (lastBatchSize <= 1) {
+            return 0;
+        }
+        return maxLingerNanos * Math.min(lastBatchSize, maxBatch) / maxBatch;
+    }
+
+    /**
+     * Send one batch: mailbox appends, directory lookups and publishes each take one
+     * pipelined round trip for the whole batch
+     */
+    private void flush(List<PendingPublish> batch) {
+        try {
+            assignIds(batch);
+            assignSeqs(batch);
+            Map<String, Set<String>> routes = directoryRouting ? resolveRoutes(batch) : Collections.emptyMap();
+
+            int version = envelopeVersions.current();
+            boolean compress = envelopeVersions.compressionAllowed();
+            List<byte[]> destinations = new ArrayList<>(batch.size());
+            List<byte[]> payloads = new ArrayList<>(batch.size());
+            for (PendingPublish pending : batch) {
+                WebSocketMessageDTO message = pending.message;
+                byte[] payload = MessageEnvelope.encode(message, version);
+                if (compress) {
+                    payload = compressor.compress(payload);
+                }
+                if (directoryRouting && pending.isSingleUser()) {
+                    Set<String> instances = routes.getOrDefault(message.getTargetUserId(), Collections.emptySet());
+                    if (instances.isEmpty()) {
+                        log.debug("User {} is not connected to any instance, message kept in mailbox only (seq={})",
+                                message.getTargetUserId(), message.getSeq());
+                    }
+                    for (String instanceId : instances) {
+                        if (instanceId.equals(message.getOriginInstance())) {
+                            // Delivered locally by the publishing handler
+                            continue;
+                        }
+                        destinations.add(bytes(transport == MessageTransport.STREAM
+                                ? RedisSessionDirectory.instanceStream(instanceId)
+                                : RedisSessionDirectory.instanceChannel(instanceId)));
+                        payloads.add(payload);
+                    }
+                } else {
+                    destinations.add(transport == MessageTransport.STREAM ? STREAM_KEY : TOPIC_KEY);
+                    payloads.add(payload);
+                }
+            }
+            if (!destinations.isEmpty()) {
+                send(destinations, payloads);
+            }
+
+            long now = System.nanoTime();
+            for (PendingPublish pending : batch) {
+                metrics.recordPublish(pending.isSingleUser(), now - pending.submittedAt);
+                pending.future.complete(null);
+            }
+            metrics.recordPublishBatch(batch.size());
+            log.debug("Published {} WebSocket messages to Redis in {} sends", batch.size(), destinations.size());
+        } catch (Exception e) {
+            log.error("Failed to publish {} WebSocket messages to Redis", batch.size(), e);
+            for (PendingPublish pending : batch) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * IDs are drawn on the publisher thread, the generator is not contended by callers. A message
+     * published again keeps its ID, so receivers that already got it drop the second copy.
+     */
+    private void assignIds(List<PendingPublish> batch) {
+        for (PendingPublish pending : batch) {
+            if (pending.message.getMessageId() == null) {
+                pending.message.setMessageId(idGenerator.nextId(pending.message));
+            }
+        }
+    }
+
+    private void assignSeqs(List<PendingPublish> batch) {
+        List<WebSocketMessageDTO> unsequenced = new ArrayList<>();
+        for (PendingPublish pending : batch) {
+            if (pending.isSingleUser() && pending.message.getSeq() == null) {
+                unsequenced.add(pending.message);
+            }
+        }
+        if (unsequenced.isEmpty()) {
+            return;
+        }
+        List<Long> seqs = mailbox.appendAll(unsequenced);
+        for (int i = 0; i < unsequenced.size(); i++) {
+            unsequenced.get(i).setSeq(seqs.get(i));
+        }
+    }
+
+    private Map<String, Set<String>> resolveRoutes(List<PendingPublish> batch) {
+        Set<String> users = new HashSet<>();
+        for (PendingPublish pending : batch) {
+            if (pending.isSingleUser()) {
+                users.add(pending.message.getTargetUserId());
+            }
+        }
+        return sessionDirectory.instancesOf(users);
+    }
+
+    /**
+     * PUBLISH (or XADD, trimming the stream to roughly streamMaxLen entries) every payload
+     * to its destination in one pipeline
+     */
+    private void send(List<byte[]> destinations, List<byte[]> payloads) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < destinations.size(); i++) {
+                if (transport == MessageTransport.STREAM) {
+                    connection.streamCommands().xAdd(
+                            MapRecord.create(destinations.get(i), Map.of(STREAM_FIELD_KEY, payloads.get(i))),
+                            RedisStreamCommands.XAddOptions.maxlen(streamMaxLen).approximateTrimming(true));
+                } else {
+                    connection.publish(destinations.get(i), payloads.get(i));
+                }
+            }
+            return null;
+        });
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A message waiting for the publisher thread
+     */
+    private record PendingPublish(WebSocketMessageDTO message, long submittedAt, CompletableFuture<Void> future) {
 
-        // Publish to Redis channel (convertAndSend uses configured serializers)
-        redisTemplate.convertAndSend(WEBSOCKET_TOPIC, jsonMessage);
-        log.info("Published WebSocket message to Redis: {}", jsonMessage);
+        boolean isSingleUser() {
+            return message.getBroadcastType() == WebSocketMessageDTO.MessageBroadcastType.SINGLE_USER;
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,17 @@
 package com.example.zzk.redis;
 
 
-import com.alibaba.fastjson2.JSONObject;
+import com.example.zzk.config.InstanceIdentity;
+import com.example.zzk.metrics.MessagingMetrics;
 import com.example.zzk.websocket.WebsocketHandler;
 import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+import com.example.zzk.websocket.presence.PresenceService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Redis Message Subscriber for WebSocket Messages
  * 
@@ -15,6 +19,11 @@ import org.springframework.stereotype.Component;
  * and distributes them to local WebSocket sessions. Each application
  * instance has its own subscriber that processes messages for its
  * connected clients.
+ * 
+ * Messages are decoded on the listener thread and delivered through the
+ * SubscriberDispatcher lanes. Messages published by this instance itself are skipped, their local
+ * recipients were served directly by WebsocketHandler. A messageId seen recently is dropped as a
+ * duplicate, see MessageDeduplicator.
  */
 @Slf4j
 @Component
@@ -23,44 +32,108 @@ public class RedisMessageSubscriber {
     @Autowired
     private WebsocketHandler websocketHandler;
 
+    @Autowired
+    private MessagingMetrics metrics;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Autowired
+    private InstanceIdentity instanceIdentity;
+
+    @Autowired
+    private SubscriberDispatcher dispatcher;
+
+    @Autowired
+    private PayloadCompressor compressor;
+
+    @Autowired
+    private MessageDeduplicator deduplicator;
+
     /**
      * Process incoming message from Redis
      * Called by RedisMessageListenerContainer when a message arrives
      * 
-     * @param messageJson The message as JSON string
+     * @param body The message body in any envelope format, possibly compressed, decoded without an intermediate string
      */
-    public void receiveMessage(String messageJson) {
+    public void receiveMessage(byte[] body) {
         try {
-            log.info("Received Redis message: {}", messageJson);
-
-            // Deserialize message from JSON
-            WebSocketMessageDTO dto = JSONObject.parseObject(messageJson, WebSocketMessageDTO.class);
-
-            // Route message based on broadcast type
-            switch (dto.getBroadcastType()) {
-                case BROADCAST:
-                    // Send to all local clients (optionally excluding sender)
-                    websocketHandler.sendMsgToLocalClients(
-                            dto.getAction(),
-                            dto.getDataJson(),
-                            dto.isExcludeSelf(),
-                            dto.getSourceUserId()
-                    );
-                    break;
-                case SINGLE_USER:
-                    // Send to specific user if connected to this instance
-                    websocketHandler.sendMsgToLocalUser(
-                            dto.getAction(),
-                            dto.getDataJson(),
-                            dto.getTargetUserId()
-                    );
-                    break;
-                default:
-                    log.warn("Unknown broadcast type: {}", dto.getBroadcastType());
+            if (log.isDebugEnabled()) {
+                log.debug("Received Redis message: {}", new String(body, StandardCharsets.UTF_8));
             }
+            long start = System.nanoTime();
+            WebSocketMessageDTO dto = MessageEnvelope.decode(compressor.decompress(body));
+            metrics.recordDecode(System.nanoTime() - start);
+            deliver(dto);
+        } catch (Exception e) {
+            log.error("Failed to process Redis message: {}", new String(body, StandardCharsets.UTF_8), e);
+        }
+    }
 
+    /**
+     * Process a message that was already read as a string, e.g. a stream entry
+     * 
+     * @param payload The message, v1 or v2 envelope
+     * @return False if the message was not handed over for delivery and should be read again,
+     *         see {@link SubscriberDispatcher#dispatch(String, Runnable)}; a message that cannot be
+     *         decoded counts as handled
+     */
+    public boolean receiveMessage(String payload) {
+        try {
+            log.debug("Received Redis message: {}", payload);
+            long start = System.nanoTime();
+            WebSocketMessageDTO dto = MessageEnvelope.decode(payload);
+            metrics.recordDecode(System.nanoTime() - start);
+            return deliver(dto);
         } catch (Exception e) {
-            log.error("Failed to process Redis message: {}", messageJson, e);
+            log.error("Failed to process Redis message: {}", payload, e);
+            return true;
+        }
+    }
+
+    /**
+     * Deliver a decoded message to the local sessions, also used by the in-process bus
+     * 
+     * @param dto The message
+     * @return False if the dispatcher did not take the message, see {@link SubscriberDispatcher#dispatch(String, Runnable)}
+     */
+    public boolean deliver(WebSocketMessageDTO dto) {
+        // The publishing instance already delivered to its own sessions
+        if (instanceIdentity.getInstanceId().equals(dto.getOriginInstance())) {
+            log.debug("Skipping message published by this instance: action={}", dto.getAction());
+            return true;
+        }
+        if (!deduplicator.firstSeen(dto.getMessageId())) {
+            metrics.recordDuplicate();
+            log.debug("Dropping duplicate message: messageId={}, action={}", dto.getMessageId(), dto.getAction());
+            return true;
+        }
+
+        // Route message based on broadcast type
+        switch (dto.getBroadcastType()) {
+            case BROADCAST:
+                // Presence changes also refresh this instance's online cache
+                if (PresenceService.isPresenceAction(dto.getAction())) {
+                    presenceService.applyBroadcast(dto.getAction(), dto.getDataJson());
+                }
+                // Send to all local clients (optionally excluding sender), broadcasts of one action stay in order
+                return dispatcher.dispatch(dto.getAction(), () -> websocketHandler.sendMsgToLocalClients(
+                        dto.getAction(),
+                        dto.getDataJson(),
+                        dto.isExcludeSelf(),
+                        dto.getSourceUserId()
+                ));
+            case SINGLE_USER:
+                // Send to specific user if connected to this instance, messages of one user stay in order
+                return dispatcher.dispatch(dto.getTargetUserId(), () -> websocketHandler.sendMsgToLocalUser(
+                        dto.getAction(),
+                        dto.getDataJson(),
+                        dto.getTargetUserId(),
+                        dto.getSeq()
+                ));
+            default:
+                log.warn("Unknown broadcast type: {}", dto.getBroadcastType());
+                return true;
         }
     }
 }
\ No newline at end of file
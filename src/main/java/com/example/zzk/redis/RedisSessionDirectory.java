@@ -0,0 +1,520 @@
+package com.example.zzk.redis;
+
+import com.example.zzk.config.InstanceIdentity;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * Cluster-wide directory of which instances hold sessions of which user
+ *
+ * Keys:
+ * - ws:{dir}:user:(userId)       SET of instance IDs holding at least one session of the user
+ * - ws:{dir}:instance:(instance) SET of user IDs connected to the instance (used for cleanup)
+ * - ws:{dir}:instances           SET of instance IDs that may have entries in the directory
+ * - ws:{dir}:alive:(instance)    Liveness key of the instance, expires unless refreshed
+ * - ws:{dir}:online              SET of user IDs connected to at least one instance
+ *                                (change detection, presence is read through onlineUsers())
+ *
+ * The scripts update a user's entry, the instance's entry and the online set atomically, so
+ * every key shares the {dir} hash tag and lives in one Redis Cluster slot; the scripts receive
+ * every key they touch in KEYS.
+ *
+ * Updates are applied asynchronously, in order, on a single thread so the WebSocket
+ * container threads never wait for Redis on connect / disconnect. Updates queued while a
+ * batch is in flight go out together in one script call, which also reports the users
+ * whose cluster-wide presence changed.
+ *
+ * An instance that crashes cannot remove its own entries. Every instance refreshes its
+ * liveness key each websocket.directory.refresh-ms and, on the same tick, reaps the entries
+ * of registered instances whose key expired, so messages stop being routed to them and their
+ * users go offline. An instance that finds its own key expired (a pause longer than the TTL)
+ * registers its users again.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "websocket.bus", havingValue = "REDIS", matchIfMissing = true)
+public class RedisSessionDirectory {
+
+    private static final String USER_KEY_PREFIX = "ws:{dir}:user:";
+    private static final String INSTANCE_KEY_PREFIX = "ws:{dir}:instance:";
+    private static final String ALIVE_KEY_PREFIX = "ws:{dir}:alive:";
+    private static final String INSTANCES_KEY = "ws:{dir}:instances";
+
+    /** Users connected to at least one instance */
+    public static final String ONLINE_KEY = "ws:{dir}:online";
+
+    /** Most updates applied by one script call */
+    private static final int MAX_BATCH = 512;
+
+    /**
+     * Applies a batch of connect ("+") / disconnect ("-") updates of this instance.
+     * KEYS[1] online set, KEYS[2] instance's user set, then the user key of every update;
+     * ARGV[1] instance ID, then op / user ID pairs in the order of the user keys.
+     * Returns the users that came online ("+id") or went offline ("-id") cluster-wide.
+     */
+    private static final RedisScript<List> APPLY_SCRIPT = new DefaultRedisScript<>(
+            "local changes = {} " +
+            "for k = 1, (#ARGV - 1) / 2 do " +
+            "  local op, user, userKey = ARGV[2 * k], ARGV[2 * k + 1], KEYS[2 + k] " +
+            "  if op == '+' then " +
+            "    redis.call('SADD', userKey, ARGV[1]) " +
+            "    redis.call('SADD', KEYS[2], user) " +
+            "    if redis.call('SADD', KEYS[1], user) == 1 then table.insert(changes, '+' .. user) end " +
+            "  else " +
+            "    redis.call('SREM', userKey, ARGV[1]) " +
+            "    redis.call('SREM', KEYS[2], user) " +
+            "    if redis.call('SCARD', userKey) == 0 and redis.call('SREM', KEYS[1], user) == 1 then " +
+            "      table.insert(changes, '-' .. user) " +
+            "    end " +
+            "  end " +
+            "end " +
+            "return changes",
+            List.class);
+
+    /**
+     * Refreshes the liveness key of this instance and registers it.
+     * KEYS[1] liveness key, KEYS[2] instance registry, ARGV[1] instance ID, ARGV[2] TTL in ms.
+     * Returns 1 if the key was still there, 0 if it had expired.
+     */
+    private static final RedisScript<Long> HEARTBEAT_SCRIPT = new DefaultRedisScript<>(
+            "local existed = redis.call('EXISTS', KEYS[1]) " +
+            "redis.call('SET', KEYS[1], '1', 'PX', ARGV[2]) " +
+            "redis.call('SADD', KEYS[2], ARGV[1]) " +
+            "return existed",
+            Long.class);
+
+    /**
+     * Removes a batch of the entries of an instance whose liveness key expired, the batch is read
+     * beforehand so its user keys can be passed in.
+     * KEYS[1] online set, KEYS[2] instance registry, KEYS[3] instance's liveness key,
+     * KEYS[4] instance's user set, then the user key of every user in the batch;
+     * ARGV[1] instance ID, then the user IDs in the order of the user keys.
+     * Returns a status ("alive" if the instance came back, "more" or "done") followed by the
+     * users that went offline cluster-wide ("-id").
+     */
+    private static final RedisScript<List> REAP_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[3]) == 1 then return {'alive'} end " +
+            "local changes = {'more'} " +
+            "for i = 2, #ARGV do " +
+            "  local user, userKey = ARGV[i], KEYS[i + 3] " +
+            "  redis.call('SREM', userKey, ARGV[1]) " +
+            "  redis.call('SREM', KEYS[4], user) " +
+            "  if redis.call('SCARD', userKey) == 0 and redis.call('SREM', KEYS[1], user) == 1 then " +
+            "    table.insert(changes, '-' .. user) " +
+            "  end " +
+            "end " +
+            "if redis.call('SCARD', KEYS[4]) == 0 then " +
+            "  redis.call('SREM', KEYS[2], ARGV[1]) " +
+            "  changes[1] = 'done' " +
+            "end " +
+            "return changes",
+            List.class);
+
+    /** Per-instance channel prefix for messages routed through the directory */
+    public static final String INSTANCE_CHANNEL_PREFIX = RedisMessagePublisher.WEBSOCKET_TOPIC + ":instance:";
+
+    /** Per-instance stream prefix, the stream transport counterpart of the instance channel */
+    public static final String INSTANCE_STREAM_PREFIX = RedisMessagePublisher.WEBSOCKET_STREAM + ":instance:";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private InstanceIdentity instanceIdentity;
+
+    /** Time an instance stays in the directory after its last liveness refresh */
+    @Value("${websocket.directory.liveness-ttl-ms:15000}")
+    private long livenessTtlMillis;
+
+    @Value("${websocket.directory.refresh-ms:5000}")
+    private long refreshMillis;
+
+    /** Runs the updates and the liveness ticks, in order */
+    private final ScheduledExecutorService updateExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ws-directory");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** Pending "+userId" / "-userId" updates, in submission order */
+    private final ConcurrentLinkedQueue<String> pendingUpdates = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /** Users with a session on this instance, registered again if the liveness key expired; guarded by this */
+    private final Set<String> localUsers = new HashSet<>();
+
+    /** Whether the liveness key was set at least once */
+    private boolean registered;
+
+    /** Receives (cameOnline, wentOffline) users after every applied batch, may be null */
+    private volatile BiConsumer<List<String>, List<String>> presenceListener;
+
+    /**
+     * Entries left behind by a previous run with the same instance ID are stale
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            clearInstance();
+        } catch (Exception e) {
+            log.error("Failed to clear stale session directory entries of {}", instanceIdentity.getInstanceId(), e);
+        }
+        // The first refresh runs before any session connects, so the instance is never reaped while registering
+        try {
+            heartbeat();
+        } catch (Exception e) {
+            log.error("Failed to register liveness of instance {}", instanceIdentity.getInstanceId(), e);
+        }
+        updateExecutor.scheduleWithFixedDelay(this::livenessTick, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        log.info("Session directory initialized: livenessTtl={} ms, refresh={} ms", livenessTtlMillis, refreshMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        updateExecutor.shutdown();
+        try {
+            updateExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            clearInstance();
+            redisTemplate.delete(ALIVE_KEY_PREFIX + instanceIdentity.getInstanceId());
+            redisTemplate.opsForSet().remove(INSTANCES_KEY, instanceIdentity.getInstanceId());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("Failed to remove session directory entries of {}", instanceIdentity.getInstanceId(), e);
+        }
+    }
+
+    /**
+     * @param instanceId The instance ID
+     * @return The channel the instance receives directly routed messages on
+     */
+    public static String instanceChannel(String instanceId) {
+        return INSTANCE_CHANNEL_PREFIX + instanceId;
+    }
+
+    /**
+     * @return The channel this instance receives directly routed messages on
+     */
+    public String localChannel() {
+        return instanceChannel(instanceIdentity.getInstanceId());
+    }
+
+    /**
+     * @param instanceId The instance ID
+     * @return The stream the instance reads directly routed messages from in stream transport mode
+     */
+    public static String instanceStream(String instanceId) {
+        return INSTANCE_STREAM_PREFIX + instanceId;
+    }
+
+    /**
+     * @return The stream this instance reads directly routed messages from
+     */
+    public String localStream() {
+        return instanceStream(instanceIdentity.getInstanceId());
+    }
+
+    /**
+     * Record that the first session of a user connected to this instance
+     *
+     * @param userId The user ID
+     */
+    public synchronized void userConnected(String userId) {
+        localUsers.add(userId);
+        submit("+" + userId);
+    }
+
+    /**
+     * Record that the last session of a user on this instance closed
+     *
+     * @param userId The user ID
+     */
+    public synchronized void userDisconnected(String userId) {
+        localUsers.remove(userId);
+        submit("-" + userId);
+    }
+
+    /**
+     * @param listener Receives the users whose cluster-wide presence changed because of this
+     *                 instance's updates, called on the directory thread
+     */
+    public void setPresenceListener(BiConsumer<List<String>, List<String>> listener) {
+        this.presenceListener = listener;
+    }
+
+    /**
+     * Look up the instances holding sessions of several users in one pipelined round trip
+     *
+     * @param userIds The user IDs
+     * @return User ID -> instance IDs, empty sets for users not connected anywhere
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Set<String>> instancesOf(Collection<String> userIds) {
+        if (userIds.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        List<String> users = new ArrayList<>(userIds);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String userId : users) {
+                stringConnection.sMembers(USER_KEY_PREFIX + userId);
+            }
+            return null;
+        });
+        Map<String, Set<String>> instances = new HashMap<>(users.size() * 2);
+        for (int i = 0; i < users.size(); i++) {
+            Object members = i < results.size() ? results.get(i) : null;
+            instances.put(users.get(i), members instanceof Set ? (Set<String>) members : Collections.emptySet());
+        }
+        return instances;
+    }
+
+    /**
+     * Read the users connected to live instances, those whose liveness key has not expired
+     *
+     * Unlike the online set this never includes users of an instance that crashed and has not
+     * been reaped yet.
+     *
+     * @return User IDs with a session on a live instance
+     */
+    public Set<String> onlineUsers() {
+        Set<String> users = new HashSet<>();
+        List<String> instances = liveInstances();
+        if (instances.isEmpty()) {
+            return users;
+        }
+        List<String> keys = new ArrayList<>(instances.size());
+        for (String instanceId : instances) {
+            keys.add(INSTANCE_KEY_PREFIX + instanceId);
+        }
+        Set<String> members = redisTemplate.opsForSet().union(keys);
+        if (members != null) {
+            users.addAll(members);
+        }
+        return users;
+    }
+
+    private void submit(String update) {
+        pendingUpdates.add(update);
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                updateExecutor.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, shutdown() removes all entries of this instance anyway
+                flushScheduled.set(false);
+                log.warn("Directory executor rejected update {}, instance is shutting down", update);
+            }
+        }
+    }
+
+    /**
+     * Apply all pending updates, runs on the directory thread
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        List<String> batch = new ArrayList<>();
+        String update;
+        while ((update = pendingUpdates.poll()) != null) {
+            batch.add(update);
+            if (batch.size() == MAX_BATCH) {
+                apply(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            apply(batch);
+        }
+    }
+
+    private void apply(List<String> updates) {
+        String instanceId = instanceIdentity.getInstanceId();
+        List<String> keys = new ArrayList<>(updates.size() + 2);
+        keys.add(ONLINE_KEY);
+        keys.add(INSTANCE_KEY_PREFIX + instanceId);
+        List<String> args = new ArrayList<>(updates.size() * 2 + 1);
+        args.add(instanceId);
+        for (String update : updates) {
+            String userId = update.substring(1);
+            keys.add(USER_KEY_PREFIX + userId);
+            args.add(update.substring(0, 1));
+            args.add(userId);
+        }
+        List<?> changes;
+        try {
+            changes = redisTemplate.execute(APPLY_SCRIPT, keys, args.toArray());
+        } catch (Exception e) {
+            log.error("Failed to update session directory ({} updates)", updates.size(), e);
+            return;
+        }
+        notifyPresence(changes, 0);
+    }
+
+    /**
+     * Pass "+id" / "-id" presence changes, starting at index from, to the listener
+     */
+    private void notifyPresence(List<?> changes, int from) {
+        BiConsumer<List<String>, List<String>> listener = presenceListener;
+        if (listener == null || changes == null || changes.size() <= from) {
+            return;
+        }
+        List<String> online = new ArrayList<>();
+        List<String> offline = new ArrayList<>();
+        for (Object change : changes.subList(from, changes.size())) {
+            String value = String.valueOf(change);
+            (value.charAt(0) == '+' ? online : offline).add(value.substring(1));
+        }
+        try {
+            listener.accept(online, offline);
+        } catch (Exception e) {
+            log.error("Presence listener failed", e);
+        }
+    }
+
+    /**
+     * Refresh this instance's liveness and reap expired instances, runs on the directory thread
+     */
+    private void livenessTick() {
+        try {
+            heartbeat();
+            reapExpiredInstances();
+        } catch (Exception e) {
+            log.error("Failed to refresh session directory liveness of {}", instanceIdentity.getInstanceId(), e);
+        }
+    }
+
+    private void heartbeat() {
+        String instanceId = instanceIdentity.getInstanceId();
+        Long existed = redisTemplate.execute(HEARTBEAT_SCRIPT, List.of(ALIVE_KEY_PREFIX + instanceId, INSTANCES_KEY),
+                instanceId, String.valueOf(livenessTtlMillis));
+        synchronized (this) {
+            if (registered && existed != null && existed == 0 && !localUsers.isEmpty()) {
+                // Another instance may have reaped us while the key was expired
+                log.warn("Liveness key of instance {} had expired, registering {} users again",
+                        instanceId, localUsers.size());
+                for (String userId : localUsers) {
+                    submit("+" + userId);
+                }
+            }
+            registered = true;
+        }
+    }
+
+    private void reapExpiredInstances() {
+        Map<String, Boolean> instances = registeredInstances();
+        instances.remove(instanceIdentity.getInstanceId());
+        for (Map.Entry<String, Boolean> instance : instances.entrySet()) {
+            if (!instance.getValue()) {
+                reap(instance.getKey());
+            }
+        }
+    }
+
+    private List<String> liveInstances() {
+        List<String> live = new ArrayList<>();
+        for (Map.Entry<String, Boolean> instance : registeredInstances().entrySet()) {
+            if (instance.getValue()) {
+                live.add(instance.getKey());
+            }
+        }
+        return live;
+    }
+
+    /**
+     * @return Registered instance ID -> whether its liveness key exists, read in one pipelined round trip
+     */
+    private Map<String, Boolean> registeredInstances() {
+        Set<String> members = redisTemplate.opsForSet().members(INSTANCES_KEY);
+        if (members == null || members.isEmpty()) {
+            return new HashMap<>();
+        }
+        List<String> instances = new ArrayList<>(members);
+        List<Object> alive = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringConnection = (StringRedisConnection) connection;
+            for (String instanceId : instances) {
+                stringConnection.exists(ALIVE_KEY_PREFIX + instanceId);
+            }
+            return null;
+        });
+        Map<String, Boolean> liveness = new HashMap<>(instances.size() * 2);
+        for (int i = 0; i < instances.size(); i++) {
+            // A missing reply counts as alive, only a confirmed expiry gets an instance reaped
+            liveness.put(instances.get(i), i >= alive.size() || !Boolean.FALSE.equals(alive.get(i)));
+        }
+        return liveness;
+    }
+
+    /**
+     * Remove the entries of an instance whose liveness key expired, safe to run on several instances at once
+     */
+    private void reap(String instanceId) {
+        String instanceKey = INSTANCE_KEY_PREFIX + instanceId;
+        int wentOffline = 0;
+        while (true) {
+            Set<String> users = redisTemplate.opsForSet().distinctRandomMembers(instanceKey, MAX_BATCH);
+            List<String> keys = new ArrayList<>(MAX_BATCH + 4);
+            keys.addAll(List.of(ONLINE_KEY, INSTANCES_KEY, ALIVE_KEY_PREFIX + instanceId, instanceKey));
+            List<String> args = new ArrayList<>(MAX_BATCH + 1);
+            args.add(instanceId);
+            if (users != null) {
+                for (String userId : users) {
+                    keys.add(USER_KEY_PREFIX + userId);
+                    args.add(userId);
+                }
+            }
+            List<?> result = redisTemplate.execute(REAP_SCRIPT, keys, args.toArray());
+            if (result == null || result.isEmpty() || "alive".equals(String.valueOf(result.get(0)))) {
+                return;
+            }
+            wentOffline += result.size() - 1;
+            notifyPresence(result, 1);
+            if ("done".equals(String.valueOf(result.get(0)))) {
+                log.warn("Reaped session directory entries of expired instance {}, {} users went offline",
+                        instanceId, wentOffline);
+                return;
+            }
+        }
+    }
+
+    private void clearInstance() {
+        String instanceId = instanceIdentity.getInstanceId();
+        Set<String> users = redisTemplate.opsForSet().members(INSTANCE_KEY_PREFIX + instanceId);
+        if (users == null || users.isEmpty()) {
+            return;
+        }
+        List<String> updates = new ArrayList<>(users.size());
+        for (String userId : users) {
+            updates.add("-" + userId);
+        }
+        for (int from = 0; from < updates.size(); from += MAX_BATCH) {
+            apply(updates.subList(from, Math.min(updates.size(), from + MAX_BATCH)));
+        }
+        log.info("Removed {} session directory entries of instance {}", users.size(), instanceId);
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.zzk.redis;
+
+import com.example.zzk.config.InstanceIdentity;
+import com.example.zzk.metrics.MessagingMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads WebSocket messages from Redis Streams in stream transport mode
+ *
+ * One reader thread pulls the broadcast stream and this instance's own stream with a single
+ * blocking XREAD returning up to batch-size entries. The ID of the last entry handed over for
+ * delivery from each stream is this instance's cursor; it is stored in Redis after every batch, so a restarted instance continues
+ * where it stopped instead of losing what was published while it was down. Entries older than
+ * max-catch-up-ms are skipped on catch-up, their recipients have reconnected elsewhere by then.
+ *
+ * Keys:
+ * - ws:stream:messages             broadcasts
+ * - ws:stream:messages:instance:{} directly routed single-user messages of one instance
+ * - ws:stream:cursor:{instance}    HASH stream key -> last ID read by the instance
+ */
+@Slf4j
+@Component
+@ConditionalOnExpression("'${websocket.bus:REDIS}' == 'REDIS' and '${websocket.transport:PUBSUB}' == 'STREAM'")
+public class RedisStreamConsumer {
+
+    private static final String CURSOR_KEY_PREFIX = "ws:stream:cursor:";
+
+    /** Cursors of instances that are gone for good expire eventually */
+    private static final Duration CURSOR_TTL = Duration.ofDays(1);
+
+    @Value("${websocket.stream.batch-size:256}")
+    private int batchSize;
+
+    @Value("${websocket.stream.block-ms:1000}")
+    private long blockMillis;
+
+    @Value("${websocket.stream.max-catch-up-ms:60000}")
+    private long maxCatchUpMillis;
+
+    private final RedisTemplate<String, String> redisTemplate;
+
+    private final RedisSessionDirectory sessionDirectory;
+
+    private final RedisMessageSubscriber subscriber;
+
+    private final MessagingMetrics metrics;
+
+    private final String cursorKey;
+
+    /** Stream key -> last ID read, reader thread only */
+    private final Map<String, String> cursors = new LinkedHashMap<>();
+
+    private volatile boolean running;
+
+    private Thread reader;
+
+    public RedisStreamConsumer(@Qualifier("websocketRedisTemplate") RedisTemplate<String, String> redisTemplate,
+                               RedisSessionDirectory sessionDirectory,
+                               RedisMessageSubscriber subscriber,
+                               MessagingMetrics metrics,
+                               InstanceIdentity instanceIdentity) {
+        this.redisTemplate = redisTemplate;
+        this.sessionDirectory = sessionDirectory;
+        this.subscriber = subscriber;
+        this.metrics = metrics;
+        this.cursorKey = CURSOR_KEY_PREFIX + instanceIdentity.getInstanceId();
+    }
+
+    @PostConstruct
+    public void start() {
+        Map<Object, Object> stored = redisTemplate.opsForHash().entries(cursorKey);
+        for (String stream : List.of(RedisMessagePublisher.WEBSOCKET_STREAM, sessionDirectory.localStream())) {
+            Object cursor = stored.get(stream);
+            cursors.put(stream, cursor != null ? cursor.toString() : latestId(stream));
+        }
+        log.info("Stream transport started: cursors={}, batchSize={}, blockMs={}, maxCatchUpMs={}",
+                cursors, batchSize, blockMillis, maxCatchUpMillis);
+
+        running = true;
+        reader = new Thread(this::readLoop, "ws-stream-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (reader != null) {
+            try {
+                // The blocking read returns within blockMillis
+                reader.join(blockMillis + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * ID of the newest entry, or 0-0 for an empty stream, so a fresh instance starts at the end
+     * without the gap "$" would leave between two reads
+     */
+    private String latestId(String stream) {
+        List<MapRecord<String, Object, Object>> last =
+                redisTemplate.opsForStream().reverseRange(stream, Range.unbounded(), Limit.limit().count(1));
+        return last == null || last.isEmpty() ? "0-0" : last.get(0).getId().getValue();
+    }
+
+    private void readLoop() {
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMillis));
+        while (running) {
+            try {
+                List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().read(options, offsets());
+                if (records == null || records.isEmpty()) {
+                    continue;
+                }
+                metrics.recordStreamBatch(records.size());
+                dispatch(records);
+                saveCursors();
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                log.error("Failed to read WebSocket message streams, retrying", e);
+                sleepQuietly(1000);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private StreamOffset<String>[] offsets() {
+        StreamOffset<String>[] offsets = new StreamOffset[cursors.size()];
+        int i = 0;
+        for (Map.Entry<String, String> cursor : cursors.entrySet()) {
+            offsets[i++] = StreamOffset.create(cursor.getKey(), ReadOffset.from(cursor.getValue()));
+        }
+        return offsets;
+    }
+
+    private void dispatch(List<MapRecord<String, Object, Object>> records) {
+        long now = System.currentTimeMillis();
+        int skipped = 0;
+        for (MapRecord<String, Object, Object> record : records) {
+            long lagMillis = now - record.getId().getTimestamp();
+            if (lagMillis > maxCatchUpMillis) {
+                skipped++;
+            } else {
+                metrics.recordStreamLag(lagMillis);
+                Object json = record.getValue().get(RedisMessagePublisher.STREAM_FIELD);
+                if (json != null && !subscriber.receiveMessage(json.toString())) {
+                    // Shutting down, the cursor stays before this entry so it is read again
+                    break;
+                }
+            }
+            // Advanced only once the entry was handed over
+            cursors.put(record.getStream(), record.getId().getValue());
+        }
+        if (skipped > 0) {
+            log.warn("Skipped {} stream entries older than {} ms while catching up", skipped, maxCatchUpMillis);
+        }
+    }
+
+    private void saveCursors() {
+        try {
+            redisTemplate.opsForHash().putAll(cursorKey, cursors);
+            redisTemplate.expire(cursorKey, CURSOR_TTL);
+        } catch (Exception e) {
+            // Next batch saves again, a restart in between only re-reads a few entries
+            log.warn("Failed to save stream cursors", e);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.zzk.redis;
+
+import com.example.zzk.metrics.MessagingMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ordered, parallel dispatch stage between the Redis listener and local delivery
+ *
+ * Decoded messages are handed to one of websocket.dispatch.workers lanes, each a single thread
+ * with its own queue. The lane is picked by a stripe key (the target user of a single-user
+ * message, the action of a broadcast), so messages with the same key are handled in arrival
+ * order while different users / actions are handled in parallel. A slow broadcast fan-out then
+ * only holds up its own lane instead of every direct message behind it.
+ *
+ * With the pub/sub transport a message for a full lane is dropped at once and counted in
+ * ws.dispatch.dropped, so one stuck lane never holds up the shared listener thread and the
+ * other lanes behind it; pub/sub is fire-and-forget anyway. With the stream transport the reader
+ * waits for room instead, nothing is dropped: it stops reading while the lane is full, and its
+ * cursor only moves past messages that were handed over. With workers = 0 messages are handled
+ * inline as before.
+ */
+@Slf4j
+@Component
+public class SubscriberDispatcher {
+
+    @Value("${websocket.dispatch.workers:4}")
+    private int workers;
+
+    @Value("${websocket.dispatch.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${websocket.transport:PUBSUB}")
+    private MessageTransport transport;
+
+    private final MessagingMetrics metrics;
+
+    private Lane[] lanes;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean running;
+
+    public SubscriberDispatcher(MessagingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void init() {
+        lanes = new Lane[Math.max(0, workers)];
+        running = true;
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i);
+            lanes[i].thread.start();
+        }
+        metrics.gauge("ws.dispatch.queue.depth", "Received messages waiting in all dispatch lanes", this,
+                SubscriberDispatcher::queueDepth);
+        metrics.gauge("ws.dispatch.queue.depth.max", "Received messages waiting in the fullest dispatch lane", this,
+                SubscriberDispatcher::maxLaneDepth);
+        metrics.counter("ws.dispatch.dropped", "Received pub/sub messages dropped because their dispatch lane was full",
+                "lane_full", dropped, LongAdder::sum);
+        log.info("Subscriber dispatch initialized: workers={}, queueCapacity={}, waitForRoom={}",
+                lanes.length, queueCapacity, transport == MessageTransport.STREAM);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+    }
+
+    /**
+     * @return Whether messages are handed to worker lanes, false if they are handled inline
+     */
+    public boolean isParallel() {
+        return lanes.length > 0;
+    }
+
+    /**
+     * Handle a received message on the lane of its stripe key
+     *
+     * @param stripeKey Messages with equal keys are handled in order, null goes to the first lane
+     * @param task Delivers the message
+     * @return Whether the message was handed over; false if it was dropped (pub/sub) or the
+     *         dispatcher stopped while waiting for room (stream), so it must be read again
+     */
+    public boolean dispatch(String stripeKey, Runnable task) {
+        if (lanes.length == 0) {
+            run(task, System.nanoTime());
+            return true;
+        }
+        Lane lane = lanes[laneOf(stripeKey)];
+        Dispatch dispatch = new Dispatch(task, System.nanoTime());
+        if (transport != MessageTransport.STREAM) {
+            if (lane.queue.offer(dispatch)) {
+                return true;
+            }
+            dropped.increment();
+            log.debug("Dispatch lane {} full, received message dropped", lane.index);
+            return false;
+        }
+        try {
+            while (running) {
+                if (lane.queue.offer(dispatch, 1, TimeUnit.SECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Dispatcher stopped before lane {} had room, message is left for the next read", lane.index);
+        return false;
+    }
+
+    private int laneOf(String stripeKey) {
+        if (stripeKey == null) {
+            return 0;
+        }
+        int h = stripeKey.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), lanes.length);
+    }
+
+    private void run(Runnable task, long queuedAt) {
+        metrics.recordDispatchWait(System.nanoTime() - queuedAt);
+        try {
+            task.run();
+        } catch (Exception e) {
+            log.error("Failed to deliver received message", e);
+        }
+    }
+
+    private int queueDepth() {
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return depth;
+    }
+
+    private int maxLaneDepth() {
+        int max = 0;
+        for (Lane lane : lanes) {
+            max = Math.max(max, lane.queue.size());
+        }
+        return max;
+    }
+
+    private record Dispatch(Runnable task, long queuedAt) {
+    }
+
+    /**
+     * One worker thread and its queue
+     */
+    private final class Lane {
+
+        private final BlockingQueue<Dispatch> queue = new LinkedBlockingQueue<>(queueCapacity);
+
+        private final int index;
+
+        private final Thread thread;
+
+        private Lane(int index) {
+            this.index = index;
+            thread = new Thread(this::loop, "ws-dispatch-" + index);
+            thread.setDaemon(true);
+        }
+
+        private void loop() {
+            while (running) {
+                try {
+                    Dispatch next = queue.poll(1, TimeUnit.SECONDS);
+                    if (next != null) {
+                        run(next.task(), next.queuedAt());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.zzk.redis.codec;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.filter.PropertyFilter;
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * v2: 0x02, the DTO without dataJson as a JSON header, '\n', then the data JSON as-is
+ *
+ *   \u0002{"action":"TASK_ASSIGNED","broadcastType":"SINGLE_USER",...}\n{"taskId":42,...}
+ *
+ * The data section is never escaped and is taken over as a string without being parsed.
+ * Serialized JSON never contains a raw newline, so the first one ends the header.
+ */
+public final class JsonEnvelopeCodec implements MessageCodec {
+
+    private static final byte HEADER_END = '\n';
+
+    private static final PropertyFilter WITHOUT_DATA = (object, name, value) -> !"dataJson".equals(name);
+
+    @Override
+    public MessageCodecType type() {
+        return MessageCodecType.JSON;
+    }
+
+    @Override
+    public byte[] encode(WebSocketMessageDTO message) {
+        byte[] header = JSON.toJSONBytes(message, WITHOUT_DATA);
+        byte[] data = message.getDataJson() == null ? new byte[0] : message.getDataJson().getBytes(StandardCharsets.UTF_8);
+
+        byte[] payload = new byte[2 + header.length + data.length];
+        payload[0] = MessageCodecType.JSON.getMarker();
+        System.arraycopy(header, 0, payload, 1, header.length);
+        payload[1 + header.length] = HEADER_END;
+        System.arraycopy(data, 0, payload, 2 + header.length, data.length);
+        return payload;
+    }
+
+    @Override
+    public WebSocketMessageDTO decode(byte[] body) {
+        int headerEnd = indexOf(body, HEADER_END, 1);
+        if (headerEnd < 0) {
+            throw new IllegalArgumentException("v2 envelope without header end");
+        }
+        WebSocketMessageDTO message = JSON.parseObject(body, 1, headerEnd - 1, StandardCharsets.UTF_8,
+                WebSocketMessageDTO.class);
+        int dataLength = body.length - headerEnd - 1;
+        message.setDataJson(dataLength == 0 ? null : new String(body, headerEnd + 1, dataLength, StandardCharsets.UTF_8));
+        return message;
+    }
+
+    /**
+     * Decode a payload that was already read as a string, e.g. a stream entry
+     *
+     * @param payload The payload, including the marker
+     * @return The message
+     */
+    public WebSocketMessageDTO decode(String payload) {
+        int headerEnd = payload.indexOf(HEADER_END, 1);
+        if (headerEnd < 0) {
+            throw new IllegalArgumentException("v2 envelope without header end");
+        }
+        WebSocketMessageDTO message = JSON.parseObject(payload.substring(1, headerEnd), WebSocketMessageDTO.class);
+        message.setDataJson(headerEnd + 1 == payload.length() ? null : payload.substring(headerEnd + 1));
+        return message;
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.zzk.redis.codec;
+
+import com.alibaba.fastjson2.JSONB;
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+
+/**
+ * v3: 0x03, then the DTO as fastjson2 JSONB
+ *
+ * Field names and numbers are binary encoded, which makes the header smaller and faster to
+ * parse than JSON; dataJson stays a string so it is still spliced into frames unparsed.
+ * Payloads are binary and need byte-level transports.
+ */
+public final class JsonbCodec implements MessageCodec {
+
+    @Override
+    public MessageCodecType type() {
+        return MessageCodecType.JSONB;
+    }
+
+    @Override
+    public byte[] encode(WebSocketMessageDTO message) {
+        byte[] jsonb = JSONB.toBytes(message);
+        byte[] payload = new byte[1 + jsonb.length];
+        payload[0] = MessageCodecType.JSONB.getMarker();
+        System.arraycopy(jsonb, 0, payload, 1, jsonb.length);
+        return payload;
+    }
+
+    @Override
+    public WebSocketMessageDTO decode(byte[] body) {
+        return JSONB.parseObject(body, 1, body.length - 1, WebSocketMessageDTO.class);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.zzk.redis.codec;
+
+import com.alibaba.fastjson2.JSON;
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+
+/**
+ * v1: the DTO serialized as one JSON object, what instances before the codecs write
+ */
+public final class LegacyJsonCodec implements MessageCodec {
+
+    @Override
+    public MessageCodecType type() {
+        return MessageCodecType.LEGACY;
+    }
+
+    @Override
+    public byte[] encode(WebSocketMessageDTO message) {
+        return JSON.toJSONBytes(message);
+    }
+
+    @Override
+    public WebSocketMessageDTO decode(byte[] body) {
+        return JSON.parseObject(body, WebSocketMessageDTO.class);
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.zzk.redis.codec;
+
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+
+/**
+ * Encodes {@link WebSocketMessageDTO} for Redis
+ *
+ * Every format except the legacy JSON starts with a marker byte, see {@link MessageCodecType}.
+ */
+public interface MessageCodec {
+
+    /**
+     * @return The format this codec writes
+     */
+    MessageCodecType type();
+
+    /**
+     * @param message The message to send
+     * @return The payload, including the marker byte
+     */
+    byte[] encode(WebSocketMessageDTO message);
+
+    /**
+     * @param body The payload, including the marker byte
+     * @return The message
+     */
+    WebSocketMessageDTO decode(byte[] body);
+}
@@ -0,0 +1,58 @@
+package com.example.zzk.redis.codec;
+
+/**
+ * Formats of messages sent through Redis, in the order instances learned to read them
+ *
+ * An instance able to read version N reads every lower version too.
+ */
+public enum MessageCodecType {
+
+    /** The DTO as one JSON object, data escaped inside "dataJson", no marker */
+    LEGACY(1, (byte) '{'),
+
+    /** JSON header plus the data JSON as-is, UTF-8 text */
+    JSON(2, (byte) 0x02),
+
+    /** The DTO as fastjson2 JSONB, binary */
+    JSONB(3, (byte) 0x03);
+
+    private final int version;
+
+    private final byte marker;
+
+    MessageCodecType(int version, byte marker) {
+        this.version = version;
+        this.marker = marker;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return First byte of every payload in this format
+     */
+    public byte getMarker() {
+        return marker;
+    }
+
+    /**
+     * @return Whether payloads are valid UTF-8 text, required by string-based paths like stream fields
+     */
+    public boolean isText() {
+        return this != JSONB;
+    }
+
+    /**
+     * @param version A format version
+     * @return The format, null if unknown
+     */
+    public static MessageCodecType ofVersion(int version) {
+        for (MessageCodecType type : values()) {
+            if (type.version == version) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
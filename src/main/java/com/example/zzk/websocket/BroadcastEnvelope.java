@@ -0,0 +1,233 @@
+package com.example.zzk.websocket;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONB;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+/**
+ * Pre-encoded outbound envelope for a single message fan-out
+ *
+ * The shared part of the frame ({"action":..,"data":..) is serialized exactly once per
+ * message. Per-recipient fields are spliced between a cached prefix and suffix, so encoding
+ * the frame for one more session costs a couple of array copies instead of parsing dataJson
+ * and re-serializing the whole envelope.
+ *
+ * The produced payload has the same shape as the frame previously built with JSONObject:
+ * {"action":"..","data":{..},"fromUser":"..","fromInstance":"..","timestamp":..}
+ * Null fields are omitted, exactly like JSONObject.toJSONString() does. Single-user messages
+ * stored in the offline mailbox additionally carry their per-user "seq".
+ *
+ * For {@link WireProtocol#JSONB} sessions the same fields are written as a JSONB array
+ * [actionCode, data, fromUser, fromInstance, timestamp(, seq)], where actionCode is the
+ * {@link WsMsgTypeEnum#getWireCode()} (or the action string if it is not a known type).
+ * The binary prefix is only encoded when the first binary recipient asks for it.
+ */
+public final class BroadcastEnvelope {
+
+    private static final char[] FROM_USER_FIELD = ",\"fromUser\":".toCharArray();
+
+    private static final byte[] JSONB_NULL = {JSONB.Constants.BC_NULL};
+
+    /** JSONB header of a fixed-size array with 5 elements */
+    private static final byte JSONB_ENVELOPE_HEADER = (byte) (JSONB.Constants.BC_ARRAY_FIX_0 + 5);
+
+    /** JSONB header of a fixed-size array with 6 elements, used when a seq is present */
+    private static final byte JSONB_SEQ_ENVELOPE_HEADER = (byte) (JSONB.Constants.BC_ARRAY_FIX_0 + 6);
+
+    /** {"action":"X","data":{..} */
+    private final char[] prefix;
+
+    /** (,"seq":42),"fromInstance":"8080","timestamp":1700000000000} */
+    private final char[] suffix;
+
+    private final String action;
+    private final String dataJson;
+    private final String instancePort;
+    private final long timestamp;
+    private final Long seq;
+
+    /** [header][actionCode][data], encoded lazily */
+    private volatile byte[] binaryPrefix;
+
+    /** [fromInstance][timestamp]([seq]), encoded lazily */
+    private volatile byte[] binarySuffix;
+
+    private BroadcastEnvelope(char[] prefix, char[] suffix,
+                              String action, String dataJson, String instancePort, long timestamp, Long seq) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.action = action;
+        this.dataJson = dataJson;
+        this.instancePort = instancePort;
+        this.timestamp = timestamp;
+        this.seq = seq;
+    }
+
+    /**
+     * Encode the shared part of a message once
+     *
+     * @param action Message action type
+     * @param dataJson Message data as JSON string, spliced in as-is
+     * @param instancePort Instance port number written as fromInstance
+     * @return Envelope that can produce frames for any number of recipients
+     */
+    public static BroadcastEnvelope of(String action, String dataJson, String instancePort) {
+        return of(action, dataJson, instancePort, null);
+    }
+
+    /**
+     * Encode the shared part of a message once
+     *
+     * @param action Message action type
+     * @param dataJson Message data as JSON string, spliced in as-is
+     * @param instancePort Instance port number written as fromInstance
+     * @param seq Per-user mailbox sequence number, omitted when null
+     * @return Envelope that can produce frames for any number of recipients
+     */
+    public static BroadcastEnvelope of(String action, String dataJson, String instancePort, Long seq) {
+        StringBuilder head = new StringBuilder(32 + (dataJson == null ? 0 : dataJson.length()));
+        head.append("{\"action\":").append(JSON.toJSONString(action));
+        if (hasData(dataJson)) {
+            head.append(",\"data\":").append(dataJson);
+        }
+
+        long timestamp = System.currentTimeMillis();
+        StringBuilder tail = new StringBuilder(64);
+        if (seq != null) {
+            tail.append(",\"seq\":").append(seq.longValue());
+        }
+        if (instancePort != null) {
+            tail.append(",\"fromInstance\":").append(JSON.toJSONString(instancePort));
+        }
+        tail.append(",\"timestamp\":").append(timestamp).append('}');
+
+        return new BroadcastEnvelope(toChars(head), toChars(tail), action, dataJson, instancePort, timestamp, seq);
+    }
+
+    /**
+     * @return The data JSON this envelope was built from
+     */
+    public String getDataJson() {
+        return dataJson;
+    }
+
+    /**
+     * Build the frame for one recipient in the session's wire protocol
+     *
+     * @param user Recipient user ID written as fromUser
+     * @param protocol The recipient session's wire protocol
+     * @return TextMessage or BinaryMessage ready to send
+     */
+    public WebSocketMessage<?> forRecipient(String user, WireProtocol protocol) {
+        if (protocol == WireProtocol.JSONB) {
+            return new BinaryMessage(encodeBinary(user));
+        }
+        return forRecipient(user);
+    }
+
+    /**
+     * Build the frame for one recipient
+     *
+     * Sessions of the same user may share the returned message, its payload is immutable.
+     *
+     * @param user Recipient user ID written as fromUser (omitted when null)
+     * @return TextMessage ready to send
+     */
+    public TextMessage forRecipient(String user) {
+        return new TextMessage(encode(user));
+    }
+
+    /**
+     * Build the raw JSON payload for one recipient
+     *
+     * @param user Recipient user ID written as fromUser (omitted when null)
+     * @return Encoded frame payload
+     */
+    public String encode(String user) {
+        char[] userChars = user == null ? null : JSON.toJSONString(user).toCharArray();
+        int length = prefix.length + suffix.length
+                + (userChars == null ? 0 : FROM_USER_FIELD.length + userChars.length);
+
+        char[] frame = new char[length];
+        int pos = 0;
+        System.arraycopy(prefix, 0, frame, pos, prefix.length);
+        pos += prefix.length;
+        if (userChars != null) {
+            System.arraycopy(FROM_USER_FIELD, 0, frame, pos, FROM_USER_FIELD.length);
+            pos += FROM_USER_FIELD.length;
+            System.arraycopy(userChars, 0, frame, pos, userChars.length);
+            pos += userChars.length;
+        }
+        System.arraycopy(suffix, 0, frame, pos, suffix.length);
+        return new String(frame);
+    }
+
+    /**
+     * Build the JSONB payload for one recipient
+     *
+     * @param user Recipient user ID written as fromUser
+     * @return Encoded frame payload
+     */
+    public byte[] encodeBinary(String user) {
+        byte[] head = binaryPrefix;
+        byte[] tail = binarySuffix;
+        if (head == null || tail == null) {
+            // Racing stripes may both encode, the result is identical
+            head = encodeBinaryPrefix();
+            tail = seq == null
+                    ? concat(jsonb(instancePort), jsonb(timestamp))
+                    : concat(jsonb(instancePort), jsonb(timestamp), jsonb(seq));
+            binarySuffix = tail;
+            binaryPrefix = head;
+        }
+        byte[] userBytes = jsonb(user);
+
+        byte[] frame = new byte[head.length + userBytes.length + tail.length];
+        System.arraycopy(head, 0, frame, 0, head.length);
+        System.arraycopy(userBytes, 0, frame, head.length, userBytes.length);
+        System.arraycopy(tail, 0, frame, head.length + userBytes.length, tail.length);
+        return frame;
+    }
+
+    private byte[] encodeBinaryPrefix() {
+        WsMsgTypeEnum type = WsMsgTypeEnum.fromCode(action);
+        byte[] actionBytes = type != null ? jsonb(type.getWireCode()) : jsonb(action);
+        byte[] dataBytes = hasData(dataJson) ? jsonb(JSON.parse(dataJson)) : JSONB_NULL;
+        byte header = seq == null ? JSONB_ENVELOPE_HEADER : JSONB_SEQ_ENVELOPE_HEADER;
+        return concat(new byte[]{header}, actionBytes, dataBytes);
+    }
+
+    private static byte[] jsonb(Object value) {
+        return value == null ? JSONB_NULL : JSONB.toBytes(value);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+
+    /**
+     * JSONObject.parse returns null for both a null and a "null" payload,
+     * in which case the legacy frame did not contain a data field at all.
+     */
+    private static boolean hasData(String dataJson) {
+        return dataJson != null && !dataJson.isBlank() && !"null".equals(dataJson.trim());
+    }
+
+    private static char[] toChars(StringBuilder sb) {
+        char[] chars = new char[sb.length()];
+        sb.getChars(0, sb.length(), chars, 0);
+        return chars;
+    }
+}
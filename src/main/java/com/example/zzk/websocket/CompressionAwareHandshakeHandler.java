@@ -0,0 +1,50 @@
+package com.example.zzk.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Handshake handler that controls permessage-deflate negotiation
+ *
+ * The servlet container offers permessage-deflate to every client that requests it.
+ * Compression trades CPU for bandwidth, so it can be switched off per deployment.
+ * It also accepts the {@link WireProtocol} codes as Sec-WebSocket-Protocol values.
+ */
+@Slf4j
+public class CompressionAwareHandshakeHandler extends DefaultHandshakeHandler {
+
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final boolean permessageDeflate;
+
+    public CompressionAwareHandshakeHandler(boolean permessageDeflate) {
+        this.permessageDeflate = permessageDeflate;
+        List<String> protocols = new ArrayList<>();
+        for (WireProtocol protocol : WireProtocol.values()) {
+            protocols.add(protocol.getCode());
+        }
+        setSupportedProtocols(protocols.toArray(new String[0]));
+    }
+
+    @Override
+    protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                 List<WebSocketExtension> requestedExtensions,
+                                                                 List<WebSocketExtension> supportedExtensions) {
+        List<WebSocketExtension> extensions = super.filterRequestedExtensions(request, requestedExtensions, supportedExtensions);
+        if (permessageDeflate) {
+            return extensions;
+        }
+        List<WebSocketExtension> filtered = new ArrayList<>(extensions.size());
+        for (WebSocketExtension extension : extensions) {
+            if (!PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName())) {
+                filtered.add(extension);
+            }
+        }
+        return filtered;
+    }
+}
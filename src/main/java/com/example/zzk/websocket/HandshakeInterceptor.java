@@ -1,6 +1,7 @@
 package com.example.zzk.websocket;
 
 
+import com.example.zzk.websocket.outbound.OutboundQueueManager;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -20,6 +21,11 @@ import java.util.Map;
 @Slf4j
 public class HandshakeInterceptor implements org.springframework.web.socket.server.HandshakeInterceptor {
 
+    /**
+     * 客户端最后收到的单发消息序号
+     */
+    public static final String LAST_SEQ_ATTRIBUTE = "lastSeq";
+
     @Value("${server.port:8080}")
     private String serverPort;
 
@@ -50,10 +56,37 @@ public class HandshakeInterceptor implements org.springframework.web.socket.serv
 
         log.info("WebSocket连接尝试建立，原始user={}，带实例标识user={}", user, userWithInstance);
 
+        // 推送消息的编码协议：json（默认）或 jsonb，同样先取 Header 再取 URL 参数
+        String protocol = servletRequest.getHeader("protocol");
+        if (protocol == null) {
+            protocol = servletRequest.getParameter("protocol");
+        }
+
+        // 客户端是否接受合并推送（数组帧），同样先取 Header 再取 URL 参数
+        String batch = servletRequest.getHeader("batch");
+        if (batch == null) {
+            batch = servletRequest.getParameter("batch");
+        }
+
+        // 断线重连时客户端带上最后收到的消息序号，服务端补发离线信箱中缺失的消息
+        String lastSeq = servletRequest.getHeader("lastSeq");
+        if (lastSeq == null) {
+            lastSeq = servletRequest.getParameter("lastSeq");
+        }
+        if (lastSeq != null) {
+            try {
+                attributes.put(LAST_SEQ_ATTRIBUTE, Long.parseLong(lastSeq.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("忽略非法的 lastSeq: {}", lastSeq);
+            }
+        }
+
         // 将原始用户ID和带实例标识的用户ID都存入 attributes
         attributes.put("user", userWithInstance);
         attributes.put("originalUser", user);
         attributes.put("instancePort", serverPort);
+        attributes.put(WireProtocol.ATTRIBUTE, WireProtocol.of(protocol));
+        attributes.put(OutboundQueueManager.BATCH_ATTRIBUTE, Boolean.parseBoolean(batch));
         return true; // 允许连接
     }
 
@@ -3,6 +3,7 @@ package com.example.zzk.websocket;
 
 import jakarta.annotation.Resource;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
@@ -26,6 +27,12 @@ public class WebSocketServerConfigure implements WebSocketConfigurer {
     @Autowired
     private WebsocketHandler websocketHandler;
 
+    /**
+     * 是否允许协商 permessage-deflate 压缩
+     */
+    @Value("${websocket.protocol.permessage-deflate:true}")
+    private boolean permessageDeflate;
+
     /**
      * 注入拦截器
      */
@@ -37,6 +44,7 @@ public class WebSocketServerConfigure implements WebSocketConfigurer {
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(websocketHandler, "/ws")
                 .setAllowedOrigins("*")
+                .setHandshakeHandler(new CompressionAwareHandshakeHandler(permessageDeflate))
                 .addInterceptors(handshakeInterceptor);
     }
 
@@ -3,23 +3,44 @@ package com.example.zzk.websocket;
 
 
 import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONException;
 import com.alibaba.fastjson2.JSONObject;
 import com.alibaba.fastjson2.JSONWriter;
-import com.example.zzk.redis.RedisMessagePublisher;
+import com.example.zzk.config.InstanceIdentity;
+import com.example.zzk.metrics.MessagingMetrics;
+import com.example.zzk.redis.RedisMailbox;
 import com.example.zzk.websocket.dto.SimpleWebSocketMessageDTO;
+import com.example.zzk.websocket.bus.MessageBus;
 import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+import com.example.zzk.websocket.fanout.BroadcastFanout;
+import com.example.zzk.websocket.fanout.FanoutResult;
+import com.example.zzk.websocket.heartbeat.HeartbeatScheduler;
+import com.example.zzk.websocket.inbound.InboundRateLimiter;
+import com.example.zzk.websocket.outbound.OutboundQueueManager;
+import com.example.zzk.websocket.registry.LocalSession;
+import com.example.zzk.websocket.registry.SessionRegistry;
+import com.example.zzk.websocket.registry.SubscriptionIndex;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * WebSocket Handler for managing client connections and message routing
@@ -31,27 +52,67 @@ import java.util.concurrent.ConcurrentHashMap;
  * - Receiving messages from Redis and broadcasting to local clients
  * 
  * Key Design: Each application instance maintains its own session map.
- * Redis pub/sub is used to synchronize messages across instances.
+ * Redis pub/sub is used to synchronize messages across instances. Messages go
+ * through the {@link MessageBus}, which with websocket.bus=LOCAL is an in-process
+ * bus for single-node deployments that need no Redis at all.
  */
 @Component
 @Slf4j
 public class WebsocketHandler extends TextWebSocketHandler {
 
     @Autowired
-    private RedisMessagePublisher redisMessagePublisher;
+    private MessageBus messageBus;
+
+    @Autowired
+    private OutboundQueueManager outboundQueueManager;
+
+    @Autowired
+    private BroadcastFanout broadcastFanout;
+
+    @Autowired
+    private MessagingMetrics metrics;
+
+    @Autowired
+    private HeartbeatScheduler heartbeatScheduler;
+
+    @Autowired
+    private InboundRateLimiter inboundRateLimiter;
+
+    /** Only present with the Redis message bus */
+    @Autowired(required = false)
+    private RedisMailbox mailbox;
+
+    @Autowired
+    private InstanceIdentity instanceIdentity;
 
     @Value("${server.port:8080}")
     private String serverPort;
 
+    /** Updates of these actions supersede older queued updates of the same entity */
+    private Set<String> coalesceActions = Collections.emptySet();
+
+    /** Field of the data object identifying the updated entity */
+    @Value("${websocket.batch.entity-key-field:id}")
+    private String entityKeyField;
+
     /**
-     * Session storage structure:
-     * Outer Map - Key: userId, Value: Map of sessions for that user
-     * Inner Map - Key: sessionId, Value: WebSocketSession
-     * 
-     * This allows multi-device support where one user can have multiple active sessions.
+     * Sessions connected to this instance, indexed by plain user ID.
+     * One user can have multiple active sessions (multi-device support).
      * Each instance only manages connections made to itself.
      */
-    private final ConcurrentHashMap<String, ConcurrentHashMap<String, WebSocketSession>> sessionMap = new ConcurrentHashMap<>();
+    @Autowired
+    private SessionRegistry sessionRegistry;
+
+    /**
+     * Inverted index from action to interested sessions, so a broadcast only touches
+     * sessions that subscribed to its action (or never narrowed their subscription)
+     */
+    private final SubscriptionIndex subscriptionIndex = new SubscriptionIndex();
+
+    @Value("${websocket.batch.coalesce-actions:UPDATE_EVENT,TASK_UPDATED,EVENT_STATUS_CHANGED,PLAN_UPDATED}")
+    public void setCoalesceActions(String[] coalesceActions) {
+        this.coalesceActions = new HashSet<>(Arrays.asList(coalesceActions));
+    }
 
     /**
      * Handle incoming text messages from WebSocket clients
@@ -62,23 +123,34 @@ public class WebsocketHandler extends TextWebSocketHandler {
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
         String payload = message.getPayload();
-        String originalUser = (String) session.getAttributes().get("originalUser");
-        String instancePort = (String) session.getAttributes().get("instancePort");
+        LocalSession local = LocalSession.of(session);
+        if (local == null) {
+            return;
+        }
+        String originalUser = local.getUserId();
+        heartbeatScheduler.touch(session);
+
+        // Frames beyond the session's or user's inbound rate are dropped, delayed or close the session
+        if (!inboundRateLimiter.admit(local)) {
+            return;
+        }
 
         // Debug logging: Display current session map content
-        log.info("========================= sessionMap content =========================");
-        for (Map.Entry<String, ConcurrentHashMap<String, WebSocketSession>> outerEntry : sessionMap.entrySet()) {
-            String outerKey = outerEntry.getKey();
-            log.info("Outer Key: {}", outerKey);
-
-            ConcurrentHashMap<String, WebSocketSession> innerMap = outerEntry.getValue();
-            for (Map.Entry<String, WebSocketSession> innerEntry : innerMap.entrySet()) {
-                String innerKey = innerEntry.getKey();
-                WebSocketSession wsSession = innerEntry.getValue();
-                log.info("  Inner Key: {}, Session ID: {}", innerKey, wsSession.getId());
+        if (log.isDebugEnabled()) {
+            log.debug("========================= session registry content =========================");
+            for (String userId : sessionRegistry.users()) {
+                log.debug("User: {}", userId);
+                for (LocalSession userSession : sessionRegistry.sessionsOf(userId)) {
+                    log.debug("  Session ID: {}", userSession.getId());
+                }
             }
+            log.debug("======================================================================");
+        }
+
+        // Subscription management frames
+        if (handleSubscriptionMessage(local, payload)) {
+            return;
         }
-        log.info("======================================================================");
         
         // Handle simple ping-pong for connection testing
         if ("ping".equalsIgnoreCase(payload)) {
@@ -87,7 +159,7 @@ public class WebsocketHandler extends TextWebSocketHandler {
             response.put("fromUser", originalUser);
             response.put("fromInstance", serverPort);
             response.put("timestamp", System.currentTimeMillis());
-            session.sendMessage(new TextMessage(response.toJSONString()));
+            sendMessage(session, new TextMessage(response.toJSONString()), null);
         } else {
             // Echo any other message back to the client
             JSONObject response = new JSONObject();
@@ -96,14 +168,70 @@ public class WebsocketHandler extends TextWebSocketHandler {
             response.put("fromUser", originalUser);
             response.put("fromInstance", serverPort);
             response.put("timestamp", System.currentTimeMillis());
-            session.sendMessage(new TextMessage(response.toJSONString()));
+            sendMessage(session, new TextMessage(response.toJSONString()), null);
+
+        }
+    }
+
+    /**
+     * Handle subscribe / unsubscribe frames sent by clients
+     * 
+     * Frame format: {"type":"subscribe","actions":["TASK_UPDATED","NEW_EVENT"]}
+     * Subscribing to "*" restores delivery of every action.
+     * 
+     * @return true if the payload was a subscription frame and has been handled
+     */
+    private boolean handleSubscriptionMessage(LocalSession session, String payload) {
+        if (payload.isEmpty() || payload.charAt(0) != '{') {
+            return false;
+        }
+        JSONObject request;
+        try {
+            request = JSONObject.parseObject(payload);
+        } catch (JSONException e) {
+            return false;
+        }
+        String type = request.getString("type");
+        boolean subscribe = "subscribe".equals(type);
+        if (!subscribe && !"unsubscribe".equals(type)) {
+            return false;
+        }
 
+        List<String> requested = request.getList("actions", String.class);
+        List<String> actions = new ArrayList<>();
+        List<String> unknown = new ArrayList<>();
+        if (requested != null) {
+            for (String action : requested) {
+                if (SubscriptionIndex.ALL_ACTIONS.equals(action) || WsMsgTypeEnum.fromCode(action) != null) {
+                    actions.add(action);
+                } else {
+                    unknown.add(action);
+                }
+            }
         }
+
+        Set<String> current = subscribe
+                ? subscriptionIndex.subscribe(session, actions)
+                : subscriptionIndex.unsubscribe(session, actions);
+        log.info("Session {} {} {}, now subscribed to {}", session.getId(), type, actions, current);
+
+        JSONObject response = new JSONObject();
+        response.put("type", "subscribed");
+        response.put("actions", current);
+        if (!unknown.isEmpty()) {
+            response.put("unknown", unknown);
+        }
+        response.put("timestamp", System.currentTimeMillis());
+        sendMessage(session.getSession(), new TextMessage(response.toJSONString()), null);
+        return true;
     }
 
     // ========================================
     // Public API: Publish messages to Redis
-    // These methods are called by controllers/services to initiate message distribution
+    // These methods are called by controllers/services to initiate message distribution.
+    // Sessions on this instance are served directly, Redis only carries the message to
+    // the other instances; the copy coming back is skipped by RedisMessageSubscriber.
+    // The in-process bus delivers everything itself.
     // ========================================
 
     /**
@@ -114,7 +242,7 @@ public class WebsocketHandler extends TextWebSocketHandler {
      */
     public void sendMsgToAllClient(WsMsgTypeEnum action, Object data) {
         String dataJson = JSONObject.toJSONString(data, JSONWriter.Feature.NullAsDefaultValue);
-        log.info("Publishing broadcast message to Redis: action={}, data={}", action.toString(), dataJson);
+        log.debug("Publishing broadcast message to Redis: action={}, data={}", action, dataJson);
         
         // Create simplified DTO for internal use
         SimpleWebSocketMessageDTO message = new SimpleWebSocketMessageDTO(
@@ -135,9 +263,10 @@ public class WebsocketHandler extends TextWebSocketHandler {
                 null,
                 WebSocketMessageDTO.MessageBroadcastType.BROADCAST
         );
-        
-        log.info("Publishing to Redis: {}", JSONObject.toJSONString(legacyMessage));
-        redisMessagePublisher.publish(legacyMessage);
+        if (deliverLocallyFirst(legacyMessage)) {
+            sendMsgToLocalClients(action.toString(), dataJson, false, null);
+        }
+        messageBus.publishAsync(legacyMessage);
     }
 
     /**
@@ -149,7 +278,7 @@ public class WebsocketHandler extends TextWebSocketHandler {
      */
     public void sendMsgToAllClientExcludeSelf(WsMsgTypeEnum action, Object data, String sourceUserId) {
         String dataJson = JSONObject.toJSONString(data, JSONWriter.Feature.NullAsDefaultValue);
-        log.info("Publishing broadcast message (excluding self) to Redis: action={}, sourceUserId={}", action.toString(), sourceUserId);
+        log.debug("Publishing broadcast message (excluding self) to Redis: action={}, sourceUserId={}", action, sourceUserId);
         
         WebSocketMessageDTO legacyMessage = new WebSocketMessageDTO(
                 action.toString(),
@@ -159,8 +288,10 @@ public class WebsocketHandler extends TextWebSocketHandler {
                 null,
                 WebSocketMessageDTO.MessageBroadcastType.BROADCAST
         );
-        
-        redisMessagePublisher.publish(legacyMessage);
+        if (deliverLocallyFirst(legacyMessage)) {
+            sendMsgToLocalClients(action.toString(), dataJson, true, sourceUserId);
+        }
+        messageBus.publishAsync(legacyMessage);
     }
 
     /**
@@ -172,7 +303,7 @@ public class WebsocketHandler extends TextWebSocketHandler {
      */
     public void sendMsgToOneUser(WsMsgTypeEnum action, Object data, String targetUserId) {
         String dataJson = JSONObject.toJSONString(data, JSONWriter.Feature.NullAsDefaultValue);
-        log.info("Publishing single-user message to Redis: action={}, targetUserId={}", action.toString(), targetUserId);
+        log.debug("Publishing single-user message to Redis: action={}, targetUserId={}", action, targetUserId);
         
         WebSocketMessageDTO legacyMessage = new WebSocketMessageDTO(
                 action.toString(),
@@ -182,8 +313,85 @@ public class WebsocketHandler extends TextWebSocketHandler {
                 targetUserId,
                 WebSocketMessageDTO.MessageBroadcastType.SINGLE_USER
         );
-        
-        redisMessagePublisher.publish(legacyMessage);
+        boolean localFirst = deliverLocallyFirst(legacyMessage);
+        CompletableFuture<Void> published = messageBus.publishAsync(legacyMessage);
+        if (localFirst) {
+            deliverLocallyAfterPublish(legacyMessage, published);
+        }
+    }
+
+    /**
+     * Send the same message to many users, e.g. a bulk TASK_ASSIGNED notification
+     * 
+     * The data is serialized once and all messages are published in pipelined batches.
+     * 
+     * @param action The message action type
+     * @param data The message data payload
+     * @param targetUserIds The target user IDs
+     * @return Completes once all messages were handed to the message bus
+     */
+    public CompletableFuture<Void> sendMsgToUsers(WsMsgTypeEnum action, Object data, Collection<String> targetUserIds) {
+        String dataJson = JSONObject.toJSONString(data, JSONWriter.Feature.NullAsDefaultValue);
+        log.debug("Publishing single-user message to {} users: action={}", targetUserIds.size(), action);
+
+        List<WebSocketMessageDTO> messages = new ArrayList<>(targetUserIds.size());
+        boolean localFirst = false;
+        for (String targetUserId : targetUserIds) {
+            WebSocketMessageDTO message = new WebSocketMessageDTO(
+                    action.toString(),
+                    dataJson,
+                    false,
+                    null,
+                    targetUserId,
+                    WebSocketMessageDTO.MessageBroadcastType.SINGLE_USER
+            );
+            localFirst = deliverLocallyFirst(message);
+            messages.add(message);
+        }
+        CompletableFuture<Void> published = messageBus.publishAll(messages);
+        if (localFirst) {
+            for (WebSocketMessageDTO message : messages) {
+                deliverLocallyAfterPublish(message, published);
+            }
+        }
+        return published;
+    }
+
+    /**
+     * With a distributed bus this instance's sessions are served directly and the bus only
+     * carries the message to the other instances. The in-process bus delivers locally itself.
+     * 
+     * @return Whether the caller has to deliver to local sessions
+     */
+    private boolean deliverLocallyFirst(WebSocketMessageDTO message) {
+        if (messageBus.deliversLocally()) {
+            return false;
+        }
+        message.setOriginInstance(instanceIdentity.getInstanceId());
+        return true;
+    }
+
+    private boolean mailboxEnabled() {
+        return mailbox != null && mailbox.isEnabled();
+    }
+
+    /**
+     * Deliver a single-user message to the target's sessions on this instance
+     * 
+     * Without a mailbox the message goes out immediately. With the mailbox the seq is only known
+     * once the publisher stored the message, so delivery waits for that, but still skips the
+     * pub/sub hop and the decode. A failed publish is delivered locally without a seq.
+     */
+    private void deliverLocallyAfterPublish(WebSocketMessageDTO message, CompletableFuture<Void> published) {
+        if (sessionRegistry.sessionsOf(message.getTargetUserId()).length == 0) {
+            return;
+        }
+        if (!mailboxEnabled()) {
+            sendMsgToLocalUser(message.getAction(), message.getDataJson(), message.getTargetUserId(), null);
+            return;
+        }
+        published.whenComplete((ignored, error) ->
+                sendMsgToLocalUser(message.getAction(), message.getDataJson(), message.getTargetUserId(), message.getSeq()));
     }
 
 
@@ -194,7 +402,8 @@ public class WebsocketHandler extends TextWebSocketHandler {
     
     /**
      * Broadcast message to all clients connected to THIS instance
-     * Called by RedisMessageSubscriber when a broadcast message is received from Redis
+     * Called by RedisMessageSubscriber when a broadcast message is received from Redis,
+     * and directly for broadcasts published by this instance
      * 
      * @param action The message action
      * @param dataJson The message data as JSON string
@@ -202,41 +411,72 @@ public class WebsocketHandler extends TextWebSocketHandler {
      * @param sourceUserId The user ID of the sender (used when excludeSelf=true)
      */
     public void sendMsgToLocalClients(String action, String dataJson, boolean excludeSelf, String sourceUserId) {
-        log.info("Broadcasting message to local clients: action={}, excludeSelf={}, sourceUserId={}", action, excludeSelf, sourceUserId);
-        log.info("Current instance sessionMap users: {}", sessionMap.keySet());
+        log.debug("Broadcasting message to local clients: action={}, excludeSelf={}, sourceUserId={}", action, excludeSelf, sourceUserId);
         
-        if (sessionMap.isEmpty()) {
-            log.warn("No WebSocket connections on this instance");
+        if (sessionRegistry.isEmpty()) {
+            log.debug("No WebSocket connections on this instance");
             return;
         }
 
-        int sentCount = 0;
-        sessionMap.forEach((userId, userSessions) -> {
-            log.info("Checking user: {}, session count: {}", userId, userSessions.size());
-            
+        // Shared part of the frame is encoded once for the whole fan-out
+        BroadcastEnvelope envelope = BroadcastEnvelope.of(action, dataJson, serverPort);
+        String supersedeKey = supersedeKeyOf(action, dataJson);
+
+        // Only sessions interested in this action are touched, striped across the fan-out executor
+        List<LocalSession> targets = subscriptionIndex.sessionsFor(action);
+        FanoutResult result = broadcastFanout.fanout(targets, session -> {
             // Skip sender's sessions if excludeSelf is true
-            if (excludeSelf && userId.equals(sourceUserId)) {
-                log.info("Skipping sender: {}", userId);
-                return;
+            if (excludeSelf && Objects.equals(session.getUserId(), sourceUserId)) {
+                return 0;
             }
-            
-            userSessions.values().forEach(session -> {
-                if (session.isOpen()) {
-                    // Get session attributes for message context
-                    String originalUser = (String) session.getAttributes().get("originalUser");
-                    String instancePort = (String) session.getAttributes().get("instancePort");
-                    
-                    log.info("Sending message to user {} (instance:{})", originalUser, instancePort);
-                    
-                    TextMessage textMessage = buildTextMessage(action, dataJson, originalUser, instancePort);
-                    sendMessage(session, textMessage);
+            if (!session.isOpen()) {
+                log.debug("Session closed, skipping: {}", session.getId());
+                return 0;
+            }
+            sendMessage(session.getSession(), envelope.forRecipient(session.getUserId(), session.getProtocol()), action, supersedeKey);
+            return 1;
+        });
+
+        metrics.recordFanout(result.recipients(), result.lastRecipientNanos());
+        log.debug("Broadcast completed, messages sent: {}, stripes: {}, last recipient reached after {} us",
+                result.recipients(), result.stripes(), result.lastRecipientMicros());
+    }
+
+    /**
+     * Deliver one envelope to all sessions of a user
+     * 
+     * Devices using the same wire protocol share one frame, so it is built at most once per protocol.
+     * 
+     * @return Number of sessions the frame was queued for
+     */
+    private int deliverToUserSessions(LocalSession[] userSessions, BroadcastEnvelope envelope, String action) {
+        String supersedeKey = supersedeKeyOf(action, envelope.getDataJson());
+        int sentCount = 0;
+        WebSocketMessage<?> textFrame = null;
+        WebSocketMessage<?> binaryFrame = null;
+        for (LocalSession session : userSessions) {
+            if (session.isOpen()) {
+                String originalUser = session.getUserId();
+                WebSocketMessage<?> frame;
+                if (session.getProtocol() == WireProtocol.JSONB) {
+                    if (binaryFrame == null) {
+                        binaryFrame = envelope.forRecipient(originalUser, WireProtocol.JSONB);
+                    }
+                    frame = binaryFrame;
                 } else {
-                    log.warn("Session closed, skipping: {}", session.getId());
+                    if (textFrame == null) {
+                        textFrame = envelope.forRecipient(originalUser, WireProtocol.JSON);
+                    }
+                    frame = textFrame;
                 }
-            });
-        });
-        
-        log.info("Broadcast completed, messages sent: {}", sentCount);
+                log.debug("Sending message to user {} (instance:{})", originalUser, serverPort);
+                sendMessage(session.getSession(), frame, action, supersedeKey);
+                sentCount++;
+            } else {
+                log.debug("Session closed, skipping: {}", session.getId());
+            }
+        }
+        return sentCount;
     }
 
     /**
@@ -248,17 +488,23 @@ public class WebsocketHandler extends TextWebSocketHandler {
      * @param targetUserId The target user ID
      */
     public void sendMsgToLocalUser(String action, String dataJson, String targetUserId) {
-        ConcurrentHashMap<String, WebSocketSession> userSessions = sessionMap.get(targetUserId);
-        if (userSessions != null && !userSessions.isEmpty()) {
-            log.info("Sending message to local user {}, action: {}", targetUserId, action);
-            userSessions.values().forEach(session -> {
-                // Get session attributes for message context
-                String originalUser = (String) session.getAttributes().get("originalUser");
-                String instancePort = (String) session.getAttributes().get("instancePort");
-                
-                TextMessage textMessage = buildTextMessage(action, dataJson, originalUser, instancePort);
-                sendMessage(session, textMessage);
-            });
+        sendMsgToLocalUser(action, dataJson, targetUserId, null);
+    }
+
+    /**
+     * Send message to a specific user connected to THIS instance
+     * 
+     * @param action The message action
+     * @param dataJson The message data as JSON string
+     * @param targetUserId The target user ID
+     * @param seq The message's seq in the user's mailbox, null if it was not stored
+     */
+    public void sendMsgToLocalUser(String action, String dataJson, String targetUserId, Long seq) {
+        LocalSession[] userSessions = sessionRegistry.sessionsOf(targetUserId);
+        if (userSessions.length > 0) {
+            log.debug("Sending message to local user {}, action: {}, seq: {}", targetUserId, action, seq);
+            BroadcastEnvelope envelope = BroadcastEnvelope.of(action, dataJson, serverPort, seq);
+            deliverToUserSessions(userSessions, envelope, action);
         }
     }
 
@@ -273,30 +519,48 @@ public class WebsocketHandler extends TextWebSocketHandler {
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
         // Extract user information from session attributes (set by HandshakeInterceptor)
-        String user = (String) session.getAttributes().get("user");
-        String originalUser = (String) session.getAttributes().get("originalUser");
-        String instancePort = (String) session.getAttributes().get("instancePort");
+        Map<String, Object> attributes = session.getAttributes();
+        String user = (String) attributes.get("user");
+        String originalUser = (String) attributes.get("originalUser");
 
         if (user != null) {
-            // Store session in instance-local map, grouped by user
-            sessionMap.computeIfAbsent(user, k -> new ConcurrentHashMap<>())
-                    .put(session.getId(), session);
-            log.info("WebSocket connection established. User: {}, OriginalUser: {}, Instance: {}, SessionId: {}", 
-                     user, originalUser, instancePort, session.getId());
-            
-            // Log current sessions for debugging
-            log.info("Current sessions on instance {}: {}", instancePort, sessionMap.keySet());
+            // A wire protocol offered as Sec-WebSocket-Protocol wins over the query parameter
+            String acceptedProtocol = session.getAcceptedProtocol();
+            WireProtocol protocol = acceptedProtocol != null && !acceptedProtocol.isEmpty()
+                    ? WireProtocol.of(acceptedProtocol)
+                    : (WireProtocol) attributes.getOrDefault(WireProtocol.ATTRIBUTE, WireProtocol.JSON);
+
+            // Outbound queue must exist before the session becomes visible to fan-out
+            outboundQueueManager.register(session);
+
+            // Handshake attributes are folded into the typed registry record from here on
+            LocalSession local = sessionRegistry.add(session, originalUser, protocol);
+            subscriptionIndex.add(local);
+            attributes.remove("user");
+            attributes.remove("originalUser");
+            attributes.remove("instancePort");
+            attributes.remove(WireProtocol.ATTRIBUTE);
+            attributes.remove(OutboundQueueManager.BATCH_ATTRIBUTE);
+            Long lastSeq = (Long) attributes.remove(HandshakeInterceptor.LAST_SEQ_ATTRIBUTE);
+
+            heartbeatScheduler.register(session, this::evictUnresponsive);
+            log.info("WebSocket connection established. User: {}, Instance: {}, SessionId: {}",
+                     local.getUserId(), serverPort, session.getId());
             
             // Send welcome message to client
             JSONObject welcomeMsg = new JSONObject();
             welcomeMsg.put("type", "welcome");
             welcomeMsg.put("message", "WebSocket连接成功");
-            welcomeMsg.put("userId", originalUser);
-            welcomeMsg.put("instance", instancePort);
+            welcomeMsg.put("userId", local.getUserId());
+            welcomeMsg.put("instance", serverPort);
+            welcomeMsg.put("protocol", protocol.getCode());
             welcomeMsg.put("timestamp", System.currentTimeMillis());
             
-            session.sendMessage(new TextMessage(welcomeMsg.toJSONString()));
-            
+            sendMessage(session, new TextMessage(welcomeMsg.toJSONString()), null);
+
+            if (lastSeq != null && mailboxEnabled()) {
+                replayMailbox(local, lastSeq);
+            }
         } else {
             log.warn("WebSocket connection rejected: no user identifier provided");
             session.close(CloseStatus.BAD_DATA);
@@ -305,24 +569,85 @@ public class WebsocketHandler extends TextWebSocketHandler {
 
     /**
      * Called when a WebSocket connection is closed
-     * Removes the session from the session map
+     * Removes the session from the registry
      */
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
-        String user = (String) session.getAttributes().get("user");
-        if (user != null) {
-            ConcurrentHashMap<String, WebSocketSession> userSessions = sessionMap.get(user);
-            if (userSessions != null) {
-                userSessions.remove(session.getId());
-                log.info("WebSocket connection closed. User: {}, SessionId: {}, Reason: {}", user, session.getId(), status);
-
-                // Remove empty user entry to prevent memory leaks
-                if (userSessions.isEmpty()) {
-                    sessionMap.remove(user);
+        LocalSession local = removeSession(session);
+        if (local != null) {
+            log.info("WebSocket connection closed. User: {}, SessionId: {}, Reason: {}", local.getUserId(), session.getId(), status);
+        }
+        heartbeatScheduler.unregister(session);
+        outboundQueueManager.unregister(session);
+        super.afterConnectionClosed(session, status);
+    }
+
+    /**
+     * Replay the single-user messages a reconnecting client missed
+     * 
+     * Runs after the session is registered, so a message may arrive both live and replayed;
+     * clients drop frames whose seq they have already seen. The closing "replay" frame tells
+     * the client whether the gap was replayed completely or it has to reload.
+     * 
+     * @param local The reconnected session
+     * @param lastSeq The last seq the client received before the disconnect
+     */
+    private void replayMailbox(LocalSession local, long lastSeq) {
+        mailbox.replay(local.getUserId(), lastSeq).whenComplete((replay, error) -> {
+            WebSocketSession session = local.getSession();
+            JSONObject summary = new JSONObject();
+            summary.put("type", "replay");
+            if (error != null) {
+                log.error("Failed to replay mailbox of user {} after seq {}", local.getUserId(), lastSeq, error);
+                summary.put("fromSeq", lastSeq);
+                summary.put("truncated", true);
+            } else {
+                for (RedisMailbox.Entry entry : replay.entries()) {
+                    BroadcastEnvelope envelope = BroadcastEnvelope.of(entry.action(), entry.dataJson(), serverPort, entry.seq());
+                    sendMessage(session, envelope.forRecipient(local.getUserId(), local.getProtocol()), entry.action());
                 }
+                summary.put("fromSeq", replay.fromSeq());
+                summary.put("toSeq", replay.currentSeq());
+                summary.put("count", replay.entries().size());
+                summary.put("truncated", replay.truncated());
+                log.debug("Replayed {} messages to user {} after seq {}", replay.entries().size(), local.getUserId(), lastSeq);
             }
+            summary.put("timestamp", System.currentTimeMillis());
+            sendMessage(session, new TextMessage(summary.toJSONString()), null);
+        });
+    }
+
+    /**
+     * Pong frames answer the server heartbeat pings
+     */
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) throws Exception {
+        heartbeatScheduler.touch(session);
+    }
+
+    /**
+     * Drop a session that stopped answering heartbeats
+     * 
+     * The container may keep a half-open connection for minutes, so the session is removed
+     * from routing right away and the close runs on the outbound writer. Runs on the heartbeat thread.
+     */
+    private void evictUnresponsive(WebSocketSession session) {
+        removeSession(session);
+        outboundQueueManager.close(session, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    /**
+     * Remove a session from the registry and the subscription index
+     * 
+     * @return The removed record, null if the session was no longer registered
+     */
+    private LocalSession removeSession(WebSocketSession session) {
+        LocalSession local = sessionRegistry.remove(session);
+        if (local != null) {
+            subscriptionIndex.remove(local);
+            inboundRateLimiter.sessionClosed(local);
         }
-        super.afterConnectionClosed(session, status);
+        return local;
     }
 
     /**
@@ -342,55 +667,77 @@ public class WebsocketHandler extends TextWebSocketHandler {
     /**
      * Build a text message for sending to WebSocket client
      * 
+     * Fan-out paths should create one BroadcastEnvelope per message instead,
+     * this is kept for one-off frames.
+     * 
      * @param action Message action type
      * @param dataJson Message data as JSON string
      * @param user User ID
      * @param instancePort Instance port number
      * @return TextMessage ready to send
      */
-    private TextMessage buildTextMessage(String action, String dataJson, String user, String instancePort) {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("action", action);
-        // Parse JSON string back to object to avoid double-encoding
-        jsonObject.put("data", JSONObject.parse(dataJson));
-        
-        // Add context information
-        jsonObject.put("fromUser", user);
-        jsonObject.put("fromInstance", instancePort);
-        jsonObject.put("timestamp", System.currentTimeMillis());
-        
-        return new TextMessage(jsonObject.toJSONString());
+    TextMessage buildTextMessage(String action, String dataJson, String user, String instancePort) {
+        return BroadcastEnvelope.of(action, dataJson, instancePort).forRecipient(user);
     }
 
     /**
      * Overloaded method for backward compatibility
      */
     private TextMessage buildTextMessage(String action, String dataJson) {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("action", action);
-        jsonObject.put("data", JSONObject.parse(dataJson));
-        jsonObject.put("fromInstance", serverPort);
-        jsonObject.put("timestamp", System.currentTimeMillis());
-        return new TextMessage(jsonObject.toJSONString());
+        return BroadcastEnvelope.of(action, dataJson, serverPort).forRecipient(null);
+    }
+
+    /**
+     * Key under which a newer update replaces an older queued one in a batching window
+     * 
+     * Only computed for coalescible actions and only when batching is enabled,
+     * the data is parsed once per message, not per recipient.
+     * 
+     * @return action:entityId, or null if the message must never be collapsed
+     */
+    private String supersedeKeyOf(String action, String dataJson) {
+        if (!outboundQueueManager.isBatchEnabled() || !coalesceActions.contains(action)
+                || dataJson == null || !dataJson.startsWith("{")) {
+            return null;
+        }
+        try {
+            Object entityId = JSONObject.parseObject(dataJson).get(entityKeyField);
+            return entityId == null ? null : action + ":" + entityId;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Queue a message for a WebSocket session
+     * 
+     * The actual socket write happens on the session's outbound writer,
+     * so this never blocks the calling (Redis listener / container) thread.
+     * 
+     * @param session The target session
+     * @param message The message to send
+     * @param action The message action, frames of the same action may be coalesced on overflow
+     */
+    private void sendMessage(WebSocketSession session, WebSocketMessage<?> message, String action) {
+        sendMessage(session, message, action, null);
     }
 
     /**
-     * Send a message to a WebSocket session with error handling
+     * Queue a message for a WebSocket session
      * 
      * @param session The target session
      * @param message The message to send
+     * @param action The message action, frames of the same action may be coalesced on overflow
+     * @param supersedeKey Entity key, a newer queued update with the same key replaces this one, may be null
      */
-    private void sendMessage(WebSocketSession session, TextMessage message) {
+    private void sendMessage(WebSocketSession session, WebSocketMessage<?> message, String action, String supersedeKey) {
         if (session.isOpen()) {
-            try {
-                log.info("Sending message to session {}: {}", session.getId(), message.getPayload());
-                session.sendMessage(message);
-                log.info("Message sent successfully to session: {}", session.getId());
-            } catch (IOException e) {
-                log.error("Failed to send message to session {}", session.getId(), e);
+            log.debug("Queueing message for session {}: {}", session.getId(), message.getPayload());
+            if (!outboundQueueManager.send(session, message, action, supersedeKey)) {
+                log.warn("Message for session {} was rejected by its outbound queue", session.getId());
             }
         } else {
-            log.warn("Session {} is closed, cannot send message", session.getId());
+            log.debug("Session {} is closed, cannot send message", session.getId());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,44 @@
+package com.example.zzk.websocket;
+
+/**
+ * Encoding of pushed messages, chosen per session at handshake time
+ *
+ * Selected with the "protocol" query parameter / header, or by offering it as
+ * Sec-WebSocket-Protocol. Control frames (welcome, pong, subscribed) are always JSON text.
+ */
+public enum WireProtocol {
+
+    /** Legacy text frames: {"action":..,"data":..,"fromUser":..,"fromInstance":..,"timestamp":..} */
+    JSON("json"),
+
+    /** Binary frames: fastjson2 JSONB array [actionCode, data, fromUser, fromInstance, timestamp] */
+    JSONB("jsonb");
+
+    /** Session attribute holding the negotiated protocol */
+    public static final String ATTRIBUTE = "wireProtocol";
+
+    private final String code;
+
+    WireProtocol(String code) {
+        this.code = code;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /**
+     * @param code Requested protocol code, may be null
+     * @return The matching protocol, JSON for anything unknown
+     */
+    public static WireProtocol of(String code) {
+        if (code != null) {
+            for (WireProtocol protocol : values()) {
+                if (protocol.code.equalsIgnoreCase(code.trim())) {
+                    return protocol;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -1,43 +1,59 @@
 package com.example.zzk.websocket;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * WebSocket消息类型枚举
  */
 public enum WsMsgTypeEnum {
 
     //演练实施相关
-    DRILL_START("DRILL_START", "演练发布"),
+    DRILL_START("DRILL_START", "演练发布", 1),
 
     // 系统通知
-    SYSTEM_NOTIFICATION("SYSTEM_NOTIFICATION", "系统通知"),
+    SYSTEM_NOTIFICATION("SYSTEM_NOTIFICATION", "系统通知", 2),
     
     // 任务相关
-    TASK_ASSIGNED("TASK_ASSIGNED", "任务分配"),
-    TASK_UPDATED("TASK_UPDATED", "任务更新"),
-    TASK_COMPLETED("TASK_COMPLETED", "任务完成"),
+    TASK_ASSIGNED("TASK_ASSIGNED", "任务分配", 3),
+    TASK_UPDATED("TASK_UPDATED", "任务更新", 4),
+    TASK_COMPLETED("TASK_COMPLETED", "任务完成", 5),
     
     // 事件相关  
-    NEW_EVENT("NEW_EVENT", "新事件创建"),
-    UPDATE_EVENT("UPDATE_EVENT", "事件更新"),
-    EVENT_STATUS_CHANGED("EVENT_STATUS_CHANGED", "事件状态变更"),
+    NEW_EVENT("NEW_EVENT", "新事件创建", 6),
+    UPDATE_EVENT("UPDATE_EVENT", "事件更新", 7),
+    EVENT_STATUS_CHANGED("EVENT_STATUS_CHANGED", "事件状态变更", 8),
     
     // 预案相关
-    PLAN_ACTIVATED("PLAN_ACTIVATED", "预案激活"),
-    PLAN_UPDATED("PLAN_UPDATED", "预案更新"),
+    PLAN_ACTIVATED("PLAN_ACTIVATED", "预案激活", 9),
+    PLAN_UPDATED("PLAN_UPDATED", "预案更新", 10),
     
     // 用户相关
-    USER_ONLINE("USER_ONLINE", "用户上线"),
-    USER_OFFLINE("USER_OFFLINE", "用户下线"),
+    USER_ONLINE("USER_ONLINE", "用户上线", 11),
+    USER_OFFLINE("USER_OFFLINE", "用户下线", 12),
     
     // 心跳
-    HEARTBEAT("HeartBeat", "心跳检测");
+    HEARTBEAT("HeartBeat", "心跳检测", 13);
+
+    private static final Map<String, WsMsgTypeEnum> BY_CODE = new HashMap<>();
+    private static final Map<Integer, WsMsgTypeEnum> BY_WIRE_CODE = new HashMap<>();
+
+    static {
+        for (WsMsgTypeEnum type : values()) {
+            BY_CODE.put(type.code, type);
+            BY_WIRE_CODE.put(type.wireCode, type);
+        }
+    }
 
     private final String code;
     private final String description;
+    /** 二进制协议中使用的数字编码，已发布的编码不可修改或复用 */
+    private final int wireCode;
 
-    WsMsgTypeEnum(String code, String description) {
+    WsMsgTypeEnum(String code, String description, int wireCode) {
         this.code = code;
         this.description = description;
+        this.wireCode = wireCode;
     }
 
     public String getCode() {
@@ -48,6 +64,30 @@ public enum WsMsgTypeEnum {
         return description;
     }
 
+    public int getWireCode() {
+        return wireCode;
+    }
+
+    /**
+     * 根据消息编码查找类型
+     *
+     * @param code 消息编码，即 toString() 的结果
+     * @return 对应的类型，未知编码返回 null
+     */
+    public static WsMsgTypeEnum fromCode(String code) {
+        return code == null ? null : BY_CODE.get(code);
+    }
+
+    /**
+     * 根据二进制协议的数字编码查找类型
+     *
+     * @param wireCode 数字编码
+     * @return 对应的类型，未知编码返回 null
+     */
+    public static WsMsgTypeEnum fromWireCode(int wireCode) {
+        return BY_WIRE_CODE.get(wireCode);
+    }
+
     @Override
     public String toString() {
         return this.code;
@@ -0,0 +1,153 @@
+package com.example.zzk.websocket.bus;
+
+import com.example.zzk.metrics.MessagingMetrics;
+import com.example.zzk.redis.RedisMessageSubscriber;
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process message bus for single-node deployments and test runs
+ *
+ * Messages are handed over through a lock-free ring buffer to one bus thread, which delivers
+ * them to the local sessions the same way messages received from Redis are delivered, without
+ * any encoding. Callers return as soon as the message is in the buffer, the bus thread is woken
+ * only when it was idle. No Redis is involved, the Redis-backed directory, mailbox and presence
+ * sync are not started in this mode.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "websocket.bus", havingValue = "LOCAL")
+public class LocalMessageBus implements MessageBus {
+
+    /** Empty polls spent spinning before the bus thread parks */
+    private static final int SPINS = 100;
+
+    @Value("${websocket.local-bus.capacity:65536}")
+    private int capacity;
+
+    private final RedisMessageSubscriber subscriber;
+
+    private final MessagingMetrics metrics;
+
+    private RingBuffer<Pending> ring;
+
+    private volatile boolean running;
+
+    private volatile boolean parked;
+
+    private Thread consumer;
+
+    /**
+     * The subscriber is injected lazily, it reaches this bus again through the presence service
+     */
+    public LocalMessageBus(@Lazy RedisMessageSubscriber subscriber, MessagingMetrics metrics) {
+        this.subscriber = subscriber;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void start() {
+        ring = new RingBuffer<>(capacity);
+        running = true;
+        consumer = new Thread(this::consumeLoop, "ws-local-bus");
+        consumer.setDaemon(true);
+        consumer.start();
+        metrics.gauge("ws.bus.local.queue", "Messages waiting in the in-process bus", this, bus -> bus.ring.size());
+        log.info("In-process message bus started: capacity={}", ring.capacity());
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAsync(WebSocketMessageDTO message) {
+        Pending pending = new Pending(message, new CompletableFuture<>());
+        if (!ring.offer(pending)) {
+            pending.future.completeExceptionally(
+                    new RejectedExecutionException("In-process bus is full (" + ring.capacity() + ")"));
+            return pending.future;
+        }
+        wakeConsumer();
+        return pending.future;
+    }
+
+    @Override
+    public CompletableFuture<Void> publishAll(Collection<WebSocketMessageDTO> messages) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[messages.size()];
+        int i = 0;
+        for (WebSocketMessageDTO message : messages) {
+            Pending pending = new Pending(message, new CompletableFuture<>());
+            while (!ring.offer(pending)) {
+                // A bulk job waits for the bus thread instead of failing halfway
+                wakeConsumer();
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+            }
+            futures[i++] = pending.future;
+        }
+        wakeConsumer();
+        return CompletableFuture.allOf(futures);
+    }
+
+    @Override
+    public boolean deliversLocally() {
+        return true;
+    }
+
+    private void wakeConsumer() {
+        if (parked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private void consumeLoop() {
+        int idle = 0;
+        while (running || !ring.isEmpty()) {
+            Pending pending = ring.poll();
+            if (pending == null) {
+                if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                parked = true;
+                // Re-check after announcing the park, a producer may have missed the flag
+                if (ring.isEmpty() && running) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                }
+                parked = false;
+                idle = 0;
+                continue;
+            }
+            idle = 0;
+            try {
+                subscriber.deliver(pending.message);
+                pending.future.complete(null);
+            } catch (Exception e) {
+                log.error("Failed to deliver message from the in-process bus", e);
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private record Pending(WebSocketMessageDTO message, CompletableFuture<Void> future) {
+    }
+}
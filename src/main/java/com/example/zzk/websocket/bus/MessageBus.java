@@ -0,0 +1,36 @@
+package com.example.zzk.websocket.bus;
+
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Carries WebSocket messages to the instances holding the recipients' sessions
+ *
+ * Selected with websocket.bus, see {@link MessageBusType}.
+ */
+public interface MessageBus {
+
+    /**
+     * Publish a message without waiting for it
+     *
+     * @param message The message DTO to publish
+     * @return Completes once the bus accepted the message, exceptionally if it could not
+     */
+    CompletableFuture<Void> publishAsync(WebSocketMessageDTO message);
+
+    /**
+     * Publish many messages, waiting for room instead of rejecting them
+     *
+     * @param messages The message DTOs to publish
+     * @return Completes once the bus accepted all messages, exceptionally if any could not
+     */
+    CompletableFuture<Void> publishAll(Collection<WebSocketMessageDTO> messages);
+
+    /**
+     * @return Whether the bus also delivers to this instance's sessions; if not, the caller
+     *         serves them directly and the bus only reaches the other instances
+     */
+    boolean deliversLocally();
+}
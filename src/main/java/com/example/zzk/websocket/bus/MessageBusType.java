@@ -0,0 +1,13 @@
+package com.example.zzk.websocket.bus;
+
+/**
+ * Implementations of {@link MessageBus}, configured with websocket.bus
+ */
+public enum MessageBusType {
+
+    /** Redis pub/sub or streams across all instances, see RedisMessagePublisher */
+    REDIS,
+
+    /** In-process ring buffer for a single instance, no Redis needed, see LocalMessageBus */
+    LOCAL
+}
@@ -0,0 +1,96 @@
+package com.example.zzk.websocket.bus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer / single-consumer ring buffer
+ *
+ * Every slot carries a sequence number telling whose turn it is: a producer claims position p
+ * with one CAS when the slot's sequence is p, writes the item and publishes it by setting the
+ * sequence to p + 1; the consumer takes it at p + 1 and frees the slot for the next lap by
+ * setting p + capacity. Producers never wait for each other beyond the claiming CAS.
+ */
+final class RingBuffer<T> {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<T> items;
+
+    private final AtomicLongArray sequences;
+
+    /** Next position to claim by producers */
+    private final AtomicLong head = new AtomicLong();
+
+    /** Next position to take, written by the consumer only */
+    private volatile long tail;
+
+    RingBuffer(int requestedCapacity) {
+        int size = Integer.highestOneBit(Math.max(2, requestedCapacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.items = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return False if the buffer is full
+     */
+    boolean offer(T item) {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    items.lazySet(index, item);
+                    // Volatile write publishes the item to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = head.get();
+            } else if (diff < 0) {
+                // The consumer has not freed this slot from the previous lap yet
+                return false;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Consumer thread only
+     *
+     * @return The oldest item, null if the buffer is empty
+     */
+    T poll() {
+        long position = tail;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        T item = items.get(index);
+        items.lazySet(index, null);
+        sequences.set(index, position + capacity);
+        tail = position + 1;
+        return item;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int size() {
+        return (int) Math.max(0, head.get() - tail);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+}
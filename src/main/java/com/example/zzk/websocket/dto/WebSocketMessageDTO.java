@@ -35,6 +35,20 @@ public class WebSocketMessageDTO implements Serializable {
     // 消息广播类型
     private MessageBroadcastType broadcastType;
 
+    // 单发消息在目标用户离线信箱中的序号，客户端重连时用 lastSeq 补发缺失的消息
+    private Long seq;
+
+    // 发布消息的实例ID，该实例已直接投递给本地会话，收到自己发布的消息时跳过
+    private String originInstance;
+
+    // 消息ID（雪花算法），发布时分配，订阅端据此丢弃重复投递的消息
+    private Long messageId;
+
+    public WebSocketMessageDTO(String action, String dataJson, boolean excludeSelf, String sourceUserId,
+                               String targetUserId, MessageBroadcastType broadcastType) {
+        this(action, dataJson, excludeSelf, sourceUserId, targetUserId, broadcastType, null, null, null);
+    }
+
     public enum MessageBroadcastType {
         BROADCAST, // 广播 (包括 excludeSelf)
         SINGLE_USER // 发给单个用户
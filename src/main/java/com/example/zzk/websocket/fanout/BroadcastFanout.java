@@ -0,0 +1,154 @@
+package com.example.zzk.websocket.fanout;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Striped parallel fan-out engine for local broadcasts
+ *
+ * The target set is split into fixed-size stripes which are delivered concurrently on the
+ * configured executor. The calling thread works on the first stripe itself and waits for the
+ * others, so two consecutive broadcasts never overtake each other on the same session.
+ * Small target sets are delivered inline, where parallelism would only add overhead.
+ */
+@Slf4j
+@Component
+public class BroadcastFanout {
+
+    @Value("${websocket.fanout.executor:PLATFORM}")
+    private FanoutExecutorMode executorMode;
+
+    @Value("${websocket.fanout.threads:0}")
+    private int threads;
+
+    @Value("${websocket.fanout.stripe-size:512}")
+    private int stripeSize;
+
+    @Value("${websocket.fanout.parallel-threshold:2048}")
+    private int parallelThreshold;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.executor = createExecutor(executorMode, parallelism);
+        log.info("Broadcast fan-out initialized: executor={}, parallelism={}, stripeSize={}, parallelThreshold={}",
+                executorMode, parallelism, stripeSize, parallelThreshold);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Deliver to every target, in parallel stripes when the set is large
+     *
+     * @param targets Snapshot of the targets to deliver to
+     * @param deliver Delivers to one target and returns the number of sessions reached
+     * @return Recipient count and time to reach the last recipient
+     */
+    public <T> FanoutResult fanout(List<T> targets, ToIntFunction<T> deliver) {
+        long start = System.nanoTime();
+        int size = targets.size();
+        if (size < parallelThreshold || size <= stripeSize) {
+            int recipients = deliverStripe(targets, 0, size, deliver);
+            return new FanoutResult(recipients, 1, System.nanoTime() - start);
+        }
+
+        int stripes = (size + stripeSize - 1) / stripeSize;
+        AtomicInteger recipients = new AtomicInteger();
+        AtomicLong lastFinished = new AtomicLong(start);
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[stripes - 1];
+        for (int i = 1; i < stripes; i++) {
+            int from = i * stripeSize;
+            int to = Math.min(from + stripeSize, size);
+            futures[i - 1] = CompletableFuture.runAsync(() -> {
+                recipients.addAndGet(deliverStripe(targets, from, to, deliver));
+                lastFinished.accumulateAndGet(System.nanoTime(), Math::max);
+            }, executor);
+        }
+
+        // Caller runs the first stripe instead of idling
+        recipients.addAndGet(deliverStripe(targets, 0, Math.min(stripeSize, size), deliver));
+        lastFinished.accumulateAndGet(System.nanoTime(), Math::max);
+
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (Exception e) {
+            log.error("Broadcast stripe failed", e);
+        }
+        return new FanoutResult(recipients.get(), stripes, lastFinished.get() - start);
+    }
+
+    private <T> int deliverStripe(List<T> targets, int from, int to, ToIntFunction<T> deliver) {
+        int recipients = 0;
+        for (int i = from; i < to; i++) {
+            try {
+                recipients += deliver.applyAsInt(targets.get(i));
+            } catch (Exception e) {
+                log.error("Failed to deliver broadcast to target {}", targets.get(i), e);
+            }
+        }
+        return recipients;
+    }
+
+    private static ExecutorService createExecutor(FanoutExecutorMode mode, int parallelism) {
+        switch (mode) {
+            case FORK_JOIN:
+                return new ForkJoinPool(parallelism);
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadExecutor();
+                if (virtual != null) {
+                    return virtual;
+                }
+                log.warn("Virtual threads are not available on Java {}, falling back to platform threads",
+                        Runtime.version().feature());
+                // fall through
+            case PLATFORM:
+            default:
+                AtomicInteger counter = new AtomicInteger();
+                return Executors.newFixedThreadPool(parallelism, r -> {
+                    Thread t = new Thread(r, "ws-fanout-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        }
+    }
+
+    /**
+     * Looked up reflectively, the project still compiles for Java 17
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+}
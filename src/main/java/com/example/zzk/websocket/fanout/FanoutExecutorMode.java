@@ -0,0 +1,16 @@
+package com.example.zzk.websocket.fanout;
+
+/**
+ * Executor used to run broadcast stripes in parallel
+ */
+public enum FanoutExecutorMode {
+
+    /** Fixed pool of platform threads */
+    PLATFORM,
+
+    /** Dedicated work-stealing ForkJoinPool */
+    FORK_JOIN,
+
+    /** One virtual thread per stripe, requires a JDK with virtual threads (21+) */
+    VIRTUAL
+}
@@ -0,0 +1,15 @@
+package com.example.zzk.websocket.fanout;
+
+/**
+ * Outcome of one local broadcast
+ *
+ * @param recipients Number of sessions the frame was handed to
+ * @param stripes Number of stripes the target set was split into
+ * @param lastRecipientNanos Time from the start of the fan-out until the last recipient was reached
+ */
+public record FanoutResult(int recipients, int stripes, long lastRecipientNanos) {
+
+    public long lastRecipientMicros() {
+        return lastRecipientNanos / 1000;
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.zzk.websocket.heartbeat;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel driven by a single ticker thread
+ *
+ * Timeouts are hashed into one of a fixed number of buckets by their deadline tick, each tick
+ * only visits one bucket. Scheduling is a lock-free append, so tens of thousands of periodic
+ * timeouts cost one thread and no per-timeout scheduler entries. Precision is one tick.
+ *
+ * @param <T> Item handed to the expiry callback
+ */
+@Slf4j
+final class HashedTimerWheel<T> {
+
+    /**
+     * A scheduled timeout, cancellation is lazy and takes effect on the next visit of its bucket
+     */
+    static final class Timeout<T> {
+
+        private final T item;
+        private final long deadlineTick;
+        private volatile boolean cancelled;
+
+        private Timeout(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickMillis;
+    private final int mask;
+    private final ArrayDeque<Timeout<T>>[] buckets;
+    private final Consumer<T> onExpire;
+    private final ScheduledExecutorService ticker;
+
+    /** Timeouts scheduled since the last tick, moved into buckets by the ticker thread */
+    private final ConcurrentLinkedQueue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+
+    /** Written by the ticker thread only */
+    private volatile long currentTick;
+
+    /**
+     * @param wheelSize Number of buckets, rounded up to a power of two
+     * @param tickMillis Duration of one tick
+     * @param threadName Name of the ticker thread
+     * @param onExpire Called on the ticker thread for every expired timeout, must not block
+     */
+    @SuppressWarnings("unchecked")
+    HashedTimerWheel(int wheelSize, long tickMillis, String threadName, Consumer<T> onExpire) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickMillis = Math.max(1, tickMillis);
+        this.mask = size - 1;
+        this.buckets = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.onExpire = onExpire;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    void start() {
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        ticker.shutdownNow();
+    }
+
+    /**
+     * Schedule an item, safe to call from any thread including the expiry callback
+     *
+     * @param item Item handed to the expiry callback
+     * @param delayMillis Delay, rounded up to whole ticks
+     * @return Handle to cancel the timeout
+     */
+    Timeout<T> schedule(T item, long delayMillis) {
+        long ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        Timeout<T> timeout = new Timeout<>(item, currentTick + ticks);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void tick() {
+        try {
+            long tick = currentTick + 1;
+            currentTick = tick;
+            transferPending(tick);
+            expire(buckets[(int) (tick & mask)], tick);
+        } catch (Throwable e) {
+            // An exception would cancel the fixed-rate schedule and stop the wheel for good
+            log.error("Timer wheel tick failed", e);
+        }
+    }
+
+    private void transferPending(long tick) {
+        Timeout<T> timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // Deadlines already passed while the timeout was pending go to the current bucket
+            long deadline = Math.max(timeout.deadlineTick, tick);
+            buckets[(int) (deadline & mask)].addLast(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout<T>> bucket, long tick) {
+        Iterator<Timeout<T>> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout<T> timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.deadlineTick <= tick) {
+                it.remove();
+                try {
+                    onExpire.accept(timeout.item);
+                } catch (Exception e) {
+                    log.error("Timer wheel expiry callback failed", e);
+                }
+            }
+            // Otherwise the deadline is one or more wheel rotations away
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.zzk.websocket.heartbeat;
+
+import com.example.zzk.metrics.MessagingMetrics;
+import com.example.zzk.websocket.outbound.OutboundQueueManager;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Server-driven heartbeat of all local WebSocket sessions
+ *
+ * Every session gets one periodic timeout on a shared hashed timer wheel. When it fires and
+ * the client has been silent for the whole interval, a protocol ping is queued; browsers
+ * answer those with a pong frame without any client code. Any inbound frame counts as a sign
+ * of life. Only an interval that follows a ping counts as missed, so a session is handed to
+ * the eviction callback once max-missed consecutive pings went unanswered, long before the
+ * TCP stack notices a half-open connection.
+ */
+@Slf4j
+@Component
+public class HeartbeatScheduler {
+
+    /** Payload of every ping, shared read-only, each frame sends a duplicate view */
+    private static final ByteBuffer PING_PAYLOAD =
+            ByteBuffer.wrap("hb".getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+
+    @Value("${websocket.heartbeat.enabled:true}")
+    private boolean enabled;
+
+    @Value("${websocket.heartbeat.interval-ms:20000}")
+    private long intervalMillis;
+
+    @Value("${websocket.heartbeat.max-missed:3}")
+    private int maxMissed;
+
+    @Value("${websocket.heartbeat.tick-ms:100}")
+    private long tickMillis;
+
+    @Value("${websocket.heartbeat.wheel-size:512}")
+    private int wheelSize;
+
+    private final OutboundQueueManager outboundQueueManager;
+
+    private final MessagingMetrics metrics;
+
+    private final ConcurrentHashMap<String, SessionHeartbeat> heartbeats = new ConcurrentHashMap<>();
+
+    private final LongAdder evicted = new LongAdder();
+
+    private HashedTimerWheel<SessionHeartbeat> wheel;
+
+    public HeartbeatScheduler(OutboundQueueManager outboundQueueManager, MessagingMetrics metrics) {
+        this.outboundQueueManager = outboundQueueManager;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            log.info("Server heartbeat disabled");
+            return;
+        }
+        this.wheel = new HashedTimerWheel<>(wheelSize, tickMillis, "ws-heartbeat", this::check);
+        wheel.start();
+        metrics.gauge("ws.heartbeat.sessions", "Sessions tracked by the heartbeat scheduler", heartbeats, ConcurrentHashMap::size);
+        metrics.counter("ws.sessions.evicted", "Sessions evicted after missing heartbeats", "heartbeat",
+                evicted, LongAdder::sum);
+        log.info("Server heartbeat initialized: interval={} ms, maxMissed={}, tick={} ms, wheelSize={}",
+                intervalMillis, maxMissed, tickMillis, wheelSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+    }
+
+    /**
+     * Start the heartbeat of a new session
+     *
+     * @param session The newly established session
+     * @param onUnresponsive Called on the heartbeat thread when the session missed too many heartbeats, must not block
+     */
+    public void register(WebSocketSession session, Consumer<WebSocketSession> onUnresponsive) {
+        if (wheel == null) {
+            return;
+        }
+        SessionHeartbeat heartbeat = new SessionHeartbeat(session, onUnresponsive);
+        heartbeats.put(session.getId(), heartbeat);
+        heartbeat.timeout = wheel.schedule(heartbeat, intervalMillis);
+    }
+
+    /**
+     * Stop the heartbeat of a closed session
+     *
+     * @param session The closed session
+     */
+    public void unregister(WebSocketSession session) {
+        SessionHeartbeat heartbeat = heartbeats.remove(session.getId());
+        if (heartbeat != null && heartbeat.timeout != null) {
+            heartbeat.timeout.cancel();
+        }
+    }
+
+    /**
+     * Record a sign of life, called for every inbound frame including pongs
+     *
+     * @param session The session the frame arrived on
+     */
+    public void touch(WebSocketSession session) {
+        SessionHeartbeat heartbeat = heartbeats.get(session.getId());
+        if (heartbeat != null) {
+            heartbeat.lastSeenNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Periodic check of one session, runs on the wheel thread
+     */
+    private void check(SessionHeartbeat heartbeat) {
+        WebSocketSession session = heartbeat.session;
+        if (heartbeats.get(session.getId()) != heartbeat) {
+            return;
+        }
+        if (!session.isOpen()) {
+            unregister(session);
+            return;
+        }
+
+        long now = System.nanoTime();
+        boolean silent = heartbeat.lastSeenNanos - heartbeat.lastCheckNanos < 0;
+        if (!silent) {
+            heartbeat.missed = 0;
+            heartbeat.pingSent = false;
+        } else if (heartbeat.pingSent && ++heartbeat.missed >= maxMissed) {
+            // Only an interval after a ping counts, the first silent interval merely triggers one
+            heartbeats.remove(session.getId(), heartbeat);
+            evicted.increment();
+            log.info("Session {} left {} pings unanswered ({} ms silent), evicting", session.getId(), heartbeat.missed,
+                    TimeUnit.NANOSECONDS.toMillis(now - heartbeat.lastSeenNanos));
+            heartbeat.onUnresponsive.accept(session);
+            return;
+        }
+        heartbeat.lastCheckNanos = now;
+
+        // Active clients already proved they are alive, only ping the silent ones
+        if (silent) {
+            outboundQueueManager.send(session, new PingMessage(PING_PAYLOAD.duplicate()), null);
+            heartbeat.pingSent = true;
+        }
+        heartbeat.timeout = wheel.schedule(heartbeat, intervalMillis);
+    }
+
+    /**
+     * Heartbeat state of one session
+     */
+    private static final class SessionHeartbeat {
+
+        private final WebSocketSession session;
+        private final Consumer<WebSocketSession> onUnresponsive;
+
+        /** Updated by container threads on every inbound frame */
+        private volatile long lastSeenNanos;
+
+        /** Wheel thread only */
+        private long lastCheckNanos;
+        private boolean pingSent;
+        private int missed;
+
+        private volatile HashedTimerWheel.Timeout<SessionHeartbeat> timeout;
+
+        private SessionHeartbeat(WebSocketSession session, Consumer<WebSocketSession> onUnresponsive) {
+            this.session = session;
+            this.onUnresponsive = onUnresponsive;
+            this.lastCheckNanos = System.nanoTime();
+            this.lastSeenNanos = lastCheckNanos;
+        }
+    }
+}
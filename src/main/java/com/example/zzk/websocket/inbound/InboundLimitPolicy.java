@@ -0,0 +1,16 @@
+package com.example.zzk.websocket.inbound;
+
+/**
+ * What to do with a client frame that exceeds the session's or user's inbound rate
+ */
+public enum InboundLimitPolicy {
+
+    /** Ignore the frame */
+    DROP,
+
+    /** Hold the frame until the rate allows it, drop it if that takes longer than the max delay */
+    DELAY,
+
+    /** Treat the client as misbehaving and close the session */
+    CLOSE
+}
@@ -0,0 +1,195 @@
+package com.example.zzk.websocket.inbound;
+
+import com.example.zzk.metrics.MessagingMetrics;
+import com.example.zzk.websocket.outbound.OutboundQueueManager;
+import com.example.zzk.websocket.registry.LocalSession;
+import com.example.zzk.websocket.registry.SessionRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Rate limits on frames sent by clients
+ *
+ * Every session has its own token bucket, and all sessions of a user share a second one, so
+ * opening more tabs does not multiply a user's budget. A frame needs a token from both; if the
+ * user bucket denies it, the session token is given back. Buckets are {@link RateLimitBucket}s,
+ * a check is one or two CAS on the container thread reading the frame and takes no lock.
+ *
+ * Frames over the limit are handled by websocket.inbound.policy, see {@link InboundLimitPolicy}.
+ * DELAY parks the container thread reading the client, which stops reading its socket and pushes
+ * back through TCP; it only affects the offending connection. CLOSE goes through the session's
+ * outbound queue, so the close frame never interleaves with a frame a writer thread is sending.
+ *
+ * The user bucket is discarded when the user's last session on this instance closes.
+ */
+@Slf4j
+@Component
+public class InboundRateLimiter {
+
+    @Value("${websocket.inbound.enabled:true}")
+    private boolean enabled;
+
+    @Value("${websocket.inbound.session-rate:20}")
+    private double sessionRate;
+
+    @Value("${websocket.inbound.session-burst:40}")
+    private int sessionBurst;
+
+    @Value("${websocket.inbound.user-rate:50}")
+    private double userRate;
+
+    @Value("${websocket.inbound.user-burst:100}")
+    private int userBurst;
+
+    @Value("${websocket.inbound.policy:DROP}")
+    private InboundLimitPolicy policy;
+
+    @Value("${websocket.inbound.max-delay-ms:1000}")
+    private long maxDelayMillis;
+
+    @Value("${websocket.inbound.close-code:1008}")
+    private int closeCode;
+
+    private final SessionRegistry sessionRegistry;
+
+    private final MessagingMetrics metrics;
+
+    private final OutboundQueueManager outboundQueueManager;
+
+    /** Interned user ID -> bucket shared by the user's sessions */
+    private final ConcurrentHashMap<String, RateLimitBucket> userBuckets = new ConcurrentHashMap<>();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+
+    private long maxDelayNanos;
+
+    private CloseStatus closeStatus;
+
+    public InboundRateLimiter(SessionRegistry sessionRegistry, MessagingMetrics metrics,
+                              OutboundQueueManager outboundQueueManager) {
+        this.sessionRegistry = sessionRegistry;
+        this.metrics = metrics;
+        this.outboundQueueManager = outboundQueueManager;
+    }
+
+    @PostConstruct
+    public void init() {
+        maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        closeStatus = new CloseStatus(closeCode, "Too many messages");
+        metrics.counter("ws.inbound.admitted", "Client frames admitted by the inbound rate limiter, delayed ones included",
+                admitted, LongAdder::sum);
+        metrics.counter("ws.inbound.limited.frames", "Client frames over the inbound rate, by the action taken", "dropped",
+                dropped, LongAdder::sum);
+        metrics.counter("ws.inbound.limited.frames", "Client frames over the inbound rate, by the action taken", "delayed",
+                delayed, LongAdder::sum);
+        metrics.counter("ws.inbound.limited.sessions", "Sessions closed for exceeding the inbound rate", "rate_limit",
+                closed, LongAdder::sum);
+        metrics.gauge("ws.inbound.users.tracked", "Users with an inbound rate bucket on this instance",
+                userBuckets, Map::size);
+        log.info("Inbound rate limiting initialized: enabled={}, session={}/s burst {}, user={}/s burst {}, policy={}, maxDelay={} ms",
+                enabled, sessionRate, sessionBurst, userRate, userBurst, policy, maxDelayMillis);
+    }
+
+    /**
+     * Check a frame received from a session, called on the container thread before handling it
+     *
+     * @param local The sending session
+     * @return True if the frame is to be handled, false if it was dropped or the session closed
+     */
+    public boolean admit(LocalSession local) {
+        if (!enabled) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long wait = tryAcquire(local, now);
+        if (wait == 0) {
+            admitted.increment();
+            return true;
+        }
+        switch (policy) {
+            case DELAY:
+                return delay(local, now, wait);
+            case CLOSE:
+                close(local);
+                return false;
+            case DROP:
+            default:
+                dropped.increment();
+                log.debug("Dropped frame of session {} (user {}), inbound rate exceeded", local.getId(), local.getUserId());
+                return false;
+        }
+    }
+
+    /**
+     * Forget the user's bucket once its last local session is gone
+     *
+     * @param local The closed session, already removed from the registry
+     */
+    public void sessionClosed(LocalSession local) {
+        if (sessionRegistry.sessionsOf(local.getUserId()).length == 0) {
+            userBuckets.remove(local.getUserId());
+        }
+    }
+
+    /**
+     * @return 0 if both buckets gave a token, otherwise nanoseconds until one is expected
+     */
+    private long tryAcquire(LocalSession local, long now) {
+        RateLimitBucket sessionBucket = local.getInboundBucket();
+        if (sessionBucket == null) {
+            sessionBucket = new RateLimitBucket(sessionRate, sessionBurst, now);
+            local.setInboundBucket(sessionBucket);
+        }
+        long wait = sessionBucket.tryAcquire(now);
+        if (wait > 0) {
+            return wait;
+        }
+        RateLimitBucket userBucket = userBuckets.get(local.getUserId());
+        if (userBucket == null) {
+            userBucket = userBuckets.computeIfAbsent(local.getUserId(), id -> new RateLimitBucket(userRate, userBurst, now));
+        }
+        wait = userBucket.tryAcquire(now);
+        if (wait > 0) {
+            sessionBucket.release();
+        }
+        return wait;
+    }
+
+    private boolean delay(LocalSession local, long start, long wait) {
+        long deadline = start + maxDelayNanos;
+        long now = start;
+        while (wait > 0) {
+            if (now + wait - deadline > 0 || Thread.currentThread().isInterrupted()) {
+                dropped.increment();
+                log.debug("Dropped frame of session {} (user {}), inbound rate exceeded beyond {} ms",
+                        local.getId(), local.getUserId(), maxDelayMillis);
+                return false;
+            }
+            LockSupport.parkNanos(wait);
+            now = System.nanoTime();
+            wait = tryAcquire(local, now);
+        }
+        delayed.increment();
+        admitted.increment();
+        return true;
+    }
+
+    private void close(LocalSession local) {
+        closed.increment();
+        log.warn("Closing session {} of user {}: inbound rate exceeded", local.getId(), local.getUserId());
+        // Closed by the writer once its current send is done, the container then reports the session closed
+        outboundQueueManager.close(local.getSession(), closeStatus);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.zzk.websocket.inbound;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as the generic cell rate algorithm (GCRA)
+ *
+ * The whole state is one theoretical arrival time (TAT): the instant the bucket would be full
+ * again. A frame is admitted if TAT minus the burst tolerance is not in the future, admitting
+ * pushes TAT one emission interval further. Updates are a single CAS, concurrent callers retry
+ * without blocking, and a denied frame leaves the state untouched.
+ *
+ * Equivalent to a bucket of burst tokens refilled at rate tokens per second.
+ */
+public final class RateLimitBucket {
+
+    /** Nanoseconds one frame adds to TAT, 1 / rate */
+    private final long emissionIntervalNanos;
+
+    /** How far TAT may run ahead of now, (burst - 1) emission intervals */
+    private final long toleranceNanos;
+
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param ratePerSecond Sustained frames per second
+     * @param burst Frames admitted back to back from a full bucket
+     * @param nowNanos Current System.nanoTime(), the bucket starts full
+     */
+    public RateLimitBucket(double ratePerSecond, int burst, long nowNanos) {
+        this.emissionIntervalNanos = Math.max(1L, (long) (1_000_000_000L / ratePerSecond));
+        this.toleranceNanos = emissionIntervalNanos * (Math.max(1, burst) - 1);
+        this.theoreticalArrival = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Take one token if available
+     *
+     * @param nowNanos Current System.nanoTime()
+     * @return 0 if the frame is admitted, otherwise nanoseconds until a token is available
+     */
+    public long tryAcquire(long nowNanos) {
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long wait = tat - toleranceNanos - nowNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(tat, Math.max(tat, nowNanos) + emissionIntervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire(long)}, when a second limit denied the frame
+     */
+    public void release() {
+        theoreticalArrival.addAndGet(-emissionIntervalNanos);
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.zzk.websocket.outbound;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-batching window of a session that opted into batched delivery
+ *
+ * @param windowMillis How long the first queued frame may wait for more frames
+ * @param maxMessages Flush immediately once this many frames are queued
+ */
+public record BatchSettings(long windowMillis, int maxMessages) {
+
+    public long windowNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+}
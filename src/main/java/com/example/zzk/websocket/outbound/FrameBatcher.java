@@ -0,0 +1,89 @@
+package com.example.zzk.websocket.outbound;
+
+import com.alibaba.fastjson2.JSONB;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges queued frames into array frames
+ *
+ * Consecutive text frames become one JSON array frame, consecutive binary (JSONB) frames
+ * become one JSONB array frame. A run of a single frame is sent unchanged, so for a client
+ * with batching enabled an array frame always means "several messages".
+ */
+final class FrameBatcher {
+
+    /** JSONB arrays up to this size encode their length in the header byte */
+    private static final int JSONB_ARRAY_FIX_MAX = 15;
+
+    private FrameBatcher() {
+    }
+
+    static List<WebSocketMessage<?>> merge(List<WebSocketMessage<?>> frames) {
+        List<WebSocketMessage<?>> merged = new ArrayList<>();
+        int runStart = 0;
+        for (int i = 1; i <= frames.size(); i++) {
+            if (i == frames.size() || frames.get(i).getClass() != frames.get(runStart).getClass()) {
+                List<WebSocketMessage<?>> run = frames.subList(runStart, i);
+                if (run.size() > 1 && isMergeable(run.get(0))) {
+                    merged.add(mergeRun(run));
+                } else {
+                    // Ping / pong frames cannot be merged
+                    merged.addAll(run);
+                }
+                runStart = i;
+            }
+        }
+        return merged;
+    }
+
+    private static boolean isMergeable(WebSocketMessage<?> frame) {
+        return frame instanceof TextMessage || frame instanceof BinaryMessage;
+    }
+
+    private static WebSocketMessage<?> mergeRun(List<WebSocketMessage<?>> run) {
+        if (run.get(0) instanceof TextMessage) {
+            int length = run.size() + 1;
+            for (WebSocketMessage<?> frame : run) {
+                length += ((TextMessage) frame).getPayload().length();
+            }
+            StringBuilder sb = new StringBuilder(length);
+            sb.append('[');
+            for (int i = 0; i < run.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(((TextMessage) run.get(i)).getPayload());
+            }
+            return new TextMessage(sb.append(']').toString());
+        }
+        byte[] header = jsonbArrayHeader(run.size());
+        int length = header.length;
+        for (WebSocketMessage<?> frame : run) {
+            length += ((BinaryMessage) frame).getPayloadLength();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(header);
+        for (WebSocketMessage<?> frame : run) {
+            buffer.put(((BinaryMessage) frame).getPayload().duplicate());
+        }
+        buffer.flip();
+        return new BinaryMessage(buffer);
+    }
+
+    private static byte[] jsonbArrayHeader(int size) {
+        if (size <= JSONB_ARRAY_FIX_MAX) {
+            return new byte[]{(byte) (JSONB.Constants.BC_ARRAY_FIX_0 + size)};
+        }
+        byte[] length = JSONB.toBytes(size);
+        byte[] header = new byte[length.length + 1];
+        header[0] = JSONB.Constants.BC_ARRAY;
+        System.arraycopy(length, 0, header, 1, length.length);
+        return header;
+    }
+}
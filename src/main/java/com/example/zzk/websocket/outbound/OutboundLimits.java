@@ -0,0 +1,25 @@
+package com.example.zzk.websocket.outbound;
+
+import org.springframework.web.socket.CloseStatus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-session outbound limits shared by all queues of an instance
+ *
+ * @param maxMessages Maximum number of queued frames
+ * @param maxBytes Maximum number of queued bytes
+ * @param sendTimeLimitMillis Maximum time a frame may wait in the queue or block in send
+ * @param overflowPolicy What to do when the queue is full
+ * @param overflowCloseStatus Close status used by {@link OverflowPolicy#CLOSE}
+ */
+public record OutboundLimits(int maxMessages,
+                             long maxBytes,
+                             long sendTimeLimitMillis,
+                             OverflowPolicy overflowPolicy,
+                             CloseStatus overflowCloseStatus) {
+
+    public long sendTimeLimitNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMillis);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.zzk.websocket.outbound;
+
+import lombok.Getter;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+/**
+ * A frame waiting in a session's outbound queue
+ */
+@Getter
+public final class OutboundMessage {
+
+    private final WebSocketMessage<?> message;
+
+    /** Frames with an equal non-null key may replace each other when the queue overflows */
+    private final String coalesceKey;
+
+    /**
+     * Action + entity key of an update, a newer frame with the same key makes this one
+     * obsolete while both wait in a batching window, may be null
+     */
+    private final String supersedeKey;
+
+    /** Approximate size used for the per-session byte limit */
+    private final int size;
+
+    private final long enqueuedNanos;
+
+    public OutboundMessage(WebSocketMessage<?> message, String coalesceKey) {
+        this(message, coalesceKey, null);
+    }
+
+    public OutboundMessage(WebSocketMessage<?> message, String coalesceKey, String supersedeKey) {
+        this.message = message;
+        this.coalesceKey = coalesceKey;
+        this.supersedeKey = supersedeKey;
+        this.size = sizeOf(message);
+        this.enqueuedNanos = System.nanoTime();
+    }
+
+    private static int sizeOf(WebSocketMessage<?> message) {
+        if (message instanceof TextMessage textMessage) {
+            // UTF-16 length is a cheap upper bound of what we hold on heap
+            return textMessage.getPayload().length() * 2;
+        }
+        if (message instanceof BinaryMessage binaryMessage) {
+            return binaryMessage.getPayloadLength();
+        }
+        return message.getPayloadLength();
+    }
+}
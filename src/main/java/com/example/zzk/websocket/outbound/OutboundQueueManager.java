@@ -0,0 +1,241 @@
+package com.example.zzk.websocket.outbound;
+
+import com.example.zzk.metrics.MessagingMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns the outbound queue of every local WebSocket session
+ *
+ * All writes to client sockets go through here. Callers enqueue and return immediately,
+ * a small pool of writer threads drains the queues, one session at a time per thread.
+ * Sessions that opted in at handshake time get a micro-batching window on top.
+ */
+@Slf4j
+@Component
+public class OutboundQueueManager {
+
+    /** Session attribute set by the handshake interceptor when the client accepts batched array frames */
+    public static final String BATCH_ATTRIBUTE = "batch";
+
+    /** Tomcat session property bounding how long a blocking send may take */
+    private static final String TOMCAT_BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    @Value("${websocket.outbound.max-queue-messages:1024}")
+    private int maxQueueMessages;
+
+    @Value("${websocket.outbound.max-queue-bytes:4194304}")
+    private long maxQueueBytes;
+
+    @Value("${websocket.outbound.send-time-limit-ms:10000}")
+    private long sendTimeLimitMillis;
+
+    @Value("${websocket.outbound.overflow-policy:DROP_OLDEST}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${websocket.outbound.overflow-close-code:1008}")
+    private int overflowCloseCode;
+
+    @Value("${websocket.outbound.writer-threads:0}")
+    private int writerThreads;
+
+    @Value("${websocket.batch.enabled:true}")
+    private boolean batchEnabled;
+
+    @Value("${websocket.batch.window-ms:10}")
+    private long batchWindowMillis;
+
+    @Value("${websocket.batch.max-messages:32}")
+    private int batchMaxMessages;
+
+    private final ConcurrentHashMap<String, SessionOutbound> outbounds = new ConcurrentHashMap<>();
+
+    private final OutboundStats stats = new OutboundStats();
+
+    private final MessagingMetrics metrics;
+
+    private OutboundLimits limits;
+
+    private ExecutorService writerExecutor;
+
+    /** Ends batching windows, only schedules drains and never writes itself */
+    private ScheduledExecutorService batchTimer;
+
+    private BatchSettings batchSettings;
+
+    public OutboundQueueManager(MessagingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void init() {
+        int threads = writerThreads > 0 ? writerThreads : Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+        AtomicInteger counter = new AtomicInteger();
+        this.writerExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ws-writer-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.limits = new OutboundLimits(maxQueueMessages, maxQueueBytes, sendTimeLimitMillis, overflowPolicy,
+                new CloseStatus(overflowCloseCode, "Slow consumer"));
+        this.batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ws-batch-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.batchSettings = new BatchSettings(batchWindowMillis, batchMaxMessages);
+        metrics.gauge("ws.outbound.queue.depth", "Frames waiting in outbound queues", this,
+                OutboundQueueManager::totalQueuedMessages);
+        metrics.counter("ws.send.failures", "Frames that could not be delivered to a session", "error",
+                stats, OutboundStats::sendFailures);
+        metrics.counter("ws.outbound.dropped", "Frames dropped by the overflow policy or superseded", "overflow",
+                stats, OutboundStats::dropped);
+        metrics.counter("ws.outbound.slow.consumers", "Sessions closed as slow consumers", "slow_consumer",
+                stats, OutboundStats::slowConsumersClosed);
+        log.info("Outbound queues initialized: writerThreads={}, limits={}, batching={}, batch={}",
+                threads, limits, batchEnabled, batchSettings);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        batchTimer.shutdownNow();
+        writerExecutor.shutdown();
+        try {
+            if (!writerExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                writerExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writerExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Create the outbound queue of a new session
+     *
+     * @param session The newly established session
+     */
+    public void register(WebSocketSession session) {
+        applyBlockingSendTimeout(session);
+        SessionOutbound outbound = isBatching(session)
+                ? new SessionOutbound(session, writerExecutor, limits, stats, batchSettings, batchTimer)
+                : new SessionOutbound(session, writerExecutor, limits, stats);
+        outbounds.put(session.getId(), outbound);
+    }
+
+    /**
+     * Whether batched delivery is available at all, callers can skip computing supersede keys otherwise
+     */
+    public boolean isBatchEnabled() {
+        return batchEnabled;
+    }
+
+    /**
+     * Clients opt into array frames with the "batch" handshake parameter
+     */
+    private boolean isBatching(WebSocketSession session) {
+        return batchEnabled && Boolean.TRUE.equals(session.getAttributes().get(BATCH_ATTRIBUTE));
+    }
+
+    /**
+     * Drop the outbound queue of a closed session
+     *
+     * @param session The closed session
+     */
+    public void unregister(WebSocketSession session) {
+        SessionOutbound outbound = outbounds.remove(session.getId());
+        if (outbound != null) {
+            outbound.discard();
+        }
+    }
+
+    /**
+     * Drop the outbound queue of a session and close it without blocking the caller
+     *
+     * Used for sessions that are dead from our point of view while the container still
+     * considers them open, writing the close frame to a half-open socket may block.
+     *
+     * @param session The session to close
+     * @param status The close status sent to the client
+     */
+    public void close(WebSocketSession session, CloseStatus status) {
+        SessionOutbound outbound = outbounds.remove(session.getId());
+        if (outbound != null) {
+            outbound.close(status);
+        }
+    }
+
+    /**
+     * Queue a frame for a session without blocking on socket I/O
+     *
+     * @param session The target session
+     * @param message The frame to send
+     * @param coalesceKey Frames with the same key may replace each other on overflow, may be null
+     * @return false if the frame was not queued
+     */
+    public boolean send(WebSocketSession session, WebSocketMessage<?> message, String coalesceKey) {
+        return send(session, message, coalesceKey, null);
+    }
+
+    /**
+     * Queue a frame for a session without blocking on socket I/O
+     *
+     * @param session The target session
+     * @param message The frame to send
+     * @param coalesceKey Frames with the same key may replace each other on overflow, may be null
+     * @param supersedeKey Action + entity key, a newer frame with the same key replaces this one
+     *                     while both wait in a batching window, may be null
+     * @return false if the frame was not queued
+     */
+    public boolean send(WebSocketSession session, WebSocketMessage<?> message, String coalesceKey, String supersedeKey) {
+        SessionOutbound outbound = outbounds.get(session.getId());
+        if (outbound == null) {
+            log.warn("No outbound queue for session {}, message dropped", session.getId());
+            metrics.recordSendRejected();
+            return false;
+        }
+        if (!outbound.offer(new OutboundMessage(message, coalesceKey, supersedeKey))) {
+            metrics.recordSendRejected();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Total number of frames queued across all sessions
+     */
+    public long totalQueuedMessages() {
+        long total = 0;
+        for (SessionOutbound outbound : outbounds.values()) {
+            total += outbound.size();
+        }
+        return total;
+    }
+
+    /**
+     * Make the container abort a stuck blocking write after the configured send time limit,
+     * so a stalled client can hold a writer thread for a bounded time only
+     */
+    private void applyBlockingSendTimeout(WebSocketSession session) {
+        if (session instanceof NativeWebSocketSession nativeSession) {
+            jakarta.websocket.Session wsSession = nativeSession.getNativeSession(jakarta.websocket.Session.class);
+            if (wsSession != null) {
+                wsSession.getUserProperties().put(TOMCAT_BLOCKING_SEND_TIMEOUT, sendTimeLimitMillis);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.zzk.websocket.outbound;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by all outbound queues of an instance
+ */
+public class OutboundStats {
+
+    /** Frames whose socket write threw */
+    final LongAdder sendFailures = new LongAdder();
+
+    /** Frames discarded by the overflow policy or superseded by a newer update */
+    final LongAdder dropped = new LongAdder();
+
+    /** Sessions closed as slow consumers */
+    final LongAdder slowConsumersClosed = new LongAdder();
+
+    public long sendFailures() {
+        return sendFailures.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long slowConsumersClosed() {
+        return slowConsumersClosed.sum();
+    }
+}
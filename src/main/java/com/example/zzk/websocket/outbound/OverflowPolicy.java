@@ -0,0 +1,16 @@
+package com.example.zzk.websocket.outbound;
+
+/**
+ * What to do when a session's outbound queue is full
+ */
+public enum OverflowPolicy {
+
+    /** Discard the oldest queued frames until the new one fits */
+    DROP_OLDEST,
+
+    /** Replace a queued frame with the same action, fall back to DROP_OLDEST */
+    COALESCE,
+
+    /** Treat the client as a slow consumer and close the session */
+    CLOSE
+}
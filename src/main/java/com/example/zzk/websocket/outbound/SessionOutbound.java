@@ -0,0 +1,394 @@
+package com.example.zzk.websocket.outbound;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bounded outbound queue of one WebSocket session
+ *
+ * Producers (Redis listener, fan-out, container threads) only ever append to the queue.
+ * A single drain task per session, run on the shared writer executor, performs the actual
+ * socket writes, so frames of one session stay in order and a stalled client can never
+ * block the thread that produced the message.
+ *
+ * Sessions with batching enabled wait up to the batching window (or until enough frames
+ * are queued) before draining, send the queued frames as one array frame, and keep only
+ * the latest of several queued updates to the same entity.
+ *
+ * Closing writes a close frame, so it is serialized with the sends as well: it runs on the
+ * writer executor only while no drain holds the session, otherwise the drain closes the
+ * session itself once its current send returns.
+ */
+@Slf4j
+public class SessionOutbound {
+
+    private final WebSocketSession session;
+    private final Executor writerExecutor;
+    private final OutboundLimits limits;
+    private final OutboundStats stats;
+
+    /** Null when the session did not opt into batching */
+    private final BatchSettings batch;
+    private final ScheduledExecutorService batchTimer;
+
+    private final ArrayDeque<OutboundMessage> queue = new ArrayDeque<>();
+    private long queuedBytes;
+
+    /** Supersede key -> the queued frame carrying the latest update, batching sessions only */
+    private final Map<String, OutboundMessage> latestByKey = new HashMap<>();
+
+    /** True while a drain (or close) task is scheduled or running */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /** Close requested by {@link #close(CloseStatus)}, taken by whichever task holds the drain flag */
+    private final AtomicReference<CloseStatus> pendingClose = new AtomicReference<>();
+
+    /** Delayed flush waiting for the batching window to end */
+    private volatile ScheduledFuture<?> pendingFlush;
+
+    /** System.nanoTime() when the in-flight send started, 0 when idle */
+    private volatile long sendStartedNanos;
+
+    private volatile boolean closed;
+
+    public SessionOutbound(WebSocketSession session, Executor writerExecutor, OutboundLimits limits, OutboundStats stats) {
+        this(session, writerExecutor, limits, stats, null, null);
+    }
+
+    public SessionOutbound(WebSocketSession session, Executor writerExecutor, OutboundLimits limits, OutboundStats stats,
+                           BatchSettings batch, ScheduledExecutorService batchTimer) {
+        this.session = session;
+        this.writerExecutor = writerExecutor;
+        this.limits = limits;
+        this.stats = stats;
+        this.batch = batch;
+        this.batchTimer = batchTimer;
+    }
+
+    /**
+     * Queue a frame for asynchronous delivery
+     *
+     * @param message The frame to send
+     * @return false if the frame was rejected because the session is closed or was closed by the overflow policy
+     */
+    public boolean offer(OutboundMessage message) {
+        if (closed) {
+            return false;
+        }
+        if (isSendStuck()) {
+            log.warn("Session {} has been blocked in send for more than {} ms, closing", session.getId(), limits.sendTimeLimitMillis());
+            closeAsync(CloseStatus.SESSION_NOT_RELIABLE);
+            return false;
+        }
+
+        synchronized (this) {
+            if (batch != null && message.getSupersedeKey() != null) {
+                // A newer update of the same entity makes the queued one obsolete
+                OutboundMessage previous = latestByKey.put(message.getSupersedeKey(), message);
+                if (previous != null && queue.removeFirstOccurrence(previous)) {
+                    queuedBytes -= previous.getSize();
+                    stats.dropped.increment();
+                }
+            }
+            if (!makeRoom(message)) {
+                forget(message);
+                return false;
+            }
+            queue.addLast(message);
+            queuedBytes += message.getSize();
+        }
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * @return Number of frames waiting to be written
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return Bytes waiting to be written
+     */
+    public synchronized long bytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * Drop everything still queued, called once the session is gone
+     */
+    public void discard() {
+        closed = true;
+        ScheduledFuture<?> flush = pendingFlush;
+        if (flush != null) {
+            flush.cancel(false);
+        }
+        synchronized (this) {
+            queue.clear();
+            latestByKey.clear();
+            queuedBytes = 0;
+        }
+    }
+
+    /**
+     * Apply the overflow policy so that the new frame fits, caller holds the lock
+     */
+    private boolean makeRoom(OutboundMessage message) {
+        if (fits(message)) {
+            return true;
+        }
+        switch (limits.overflowPolicy()) {
+            case CLOSE:
+                log.warn("Outbound queue of session {} is full ({} frames, {} bytes), closing slow consumer",
+                        session.getId(), queue.size(), queuedBytes);
+                closeAsync(limits.overflowCloseStatus());
+                return false;
+            case COALESCE:
+                if (message.getCoalesceKey() != null && removeSameKey(message.getCoalesceKey()) && fits(message)) {
+                    return true;
+                }
+                // fall through: nothing to coalesce with, behave like DROP_OLDEST
+            case DROP_OLDEST:
+            default:
+                int dropped = 0;
+                while (!queue.isEmpty() && !fits(message)) {
+                    OutboundMessage oldest = queue.pollFirst();
+                    queuedBytes -= oldest.getSize();
+                    forget(oldest);
+                    dropped++;
+                }
+                if (dropped > 0) {
+                    stats.dropped.add(dropped);
+                    log.debug("Dropped {} oldest frames for slow session {}", dropped, session.getId());
+                }
+                return true;
+        }
+    }
+
+    private boolean fits(OutboundMessage message) {
+        return queue.size() < limits.maxMessages()
+                && (queue.isEmpty() || queuedBytes + message.getSize() <= limits.maxBytes());
+    }
+
+    private boolean removeSameKey(String coalesceKey) {
+        Iterator<OutboundMessage> it = queue.iterator();
+        while (it.hasNext()) {
+            OutboundMessage queued = it.next();
+            if (coalesceKey.equals(queued.getCoalesceKey())) {
+                it.remove();
+                queuedBytes -= queued.getSize();
+                forget(queued);
+                stats.dropped.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the supersede index entry of a frame leaving the queue, caller holds the lock
+     */
+    private void forget(OutboundMessage message) {
+        String key = message.getSupersedeKey();
+        if (key != null && latestByKey.get(key) == message) {
+            latestByKey.remove(key);
+        }
+    }
+
+    private void scheduleDrain() {
+        if (batch == null) {
+            if (draining.compareAndSet(false, true)) {
+                submitDrain();
+            }
+            return;
+        }
+
+        if (draining.compareAndSet(false, true)) {
+            if (size() >= batch.maxMessages()) {
+                submitDrain();
+            } else {
+                // Open a batching window, frames queued until it ends go out together
+                pendingFlush = batchTimer.schedule(this::submitDrain, batch.windowMillis(), TimeUnit.MILLISECONDS);
+            }
+        } else if (size() >= batch.maxMessages()) {
+            // Batch is full before the window ended, flush now
+            ScheduledFuture<?> flush = pendingFlush;
+            if (flush != null && flush.cancel(false)) {
+                submitDrain();
+            }
+        }
+    }
+
+    private void submitDrain() {
+        pendingFlush = null;
+        try {
+            writerExecutor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            log.error("Writer executor rejected drain task for session {}", session.getId());
+        }
+    }
+
+    /**
+     * Write queued frames until the queue is empty, runs on the writer executor
+     */
+    private void drain() {
+        try {
+            List<OutboundMessage> next;
+            while (!(next = pollBatch()).isEmpty()) {
+                if (!session.isOpen()) {
+                    discard();
+                    return;
+                }
+                if (System.nanoTime() - next.get(0).getEnqueuedNanos() > limits.sendTimeLimitNanos() + batchWindowNanos()) {
+                    log.warn("Frame waited more than {} ms in the queue of session {}, closing slow consumer",
+                            limits.sendTimeLimitMillis(), session.getId());
+                    closeAsync(CloseStatus.SESSION_NOT_RELIABLE);
+                    return;
+                }
+                if (next.size() == 1) {
+                    send(next.get(0).getMessage());
+                } else {
+                    List<WebSocketMessage<?>> frames = new ArrayList<>(next.size());
+                    for (OutboundMessage message : next) {
+                        frames.add(message.getMessage());
+                    }
+                    for (WebSocketMessage<?> frame : FrameBatcher.merge(frames)) {
+                        send(frame);
+                    }
+                }
+            }
+        } finally {
+            // Still holding the flag, no send can run concurrently with the close
+            runPendingClose();
+            draining.set(false);
+        }
+        if (pendingClose.get() != null) {
+            // Close was requested after the check above
+            closeWhenIdle();
+        } else if (!closed && size() > 0) {
+            // A producer may have queued a frame after the last poll but before the flag was cleared
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Take the next frame, or up to one batch of frames for batching sessions
+     */
+    private synchronized List<OutboundMessage> pollBatch() {
+        int max = batch == null ? 1 : batch.maxMessages();
+        List<OutboundMessage> polled = new ArrayList<>(Math.min(max, queue.size()));
+        OutboundMessage message;
+        while (polled.size() < max && (message = queue.pollFirst()) != null) {
+            queuedBytes -= message.getSize();
+            forget(message);
+            polled.add(message);
+        }
+        return polled;
+    }
+
+    private long batchWindowNanos() {
+        return batch == null ? 0 : batch.windowNanos();
+    }
+
+    private void send(WebSocketMessage<?> message) {
+        sendStartedNanos = System.nanoTime();
+        try {
+            session.sendMessage(message);
+        } catch (Exception e) {
+            stats.sendFailures.increment();
+            log.error("Failed to send message to session {}", session.getId(), e);
+        } finally {
+            sendStartedNanos = 0;
+        }
+    }
+
+    private boolean isSendStuck() {
+        long started = sendStartedNanos;
+        return started != 0 && System.nanoTime() - started > limits.sendTimeLimitNanos();
+    }
+
+    /**
+     * Drop everything still queued and close the session on the writer executor
+     *
+     * @param status The close status sent to the client
+     */
+    public void close(CloseStatus status) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (this) {
+            stats.dropped.add(queue.size());
+            queue.clear();
+            latestByKey.clear();
+            queuedBytes = 0;
+        }
+        pendingClose.set(status);
+        closeWhenIdle();
+    }
+
+    /**
+     * Run the pending close on the writer executor unless a drain holds the session, which then closes it
+     */
+    private void closeWhenIdle() {
+        // An open batching window holds the flag without a drain behind it
+        ScheduledFuture<?> flush = pendingFlush;
+        boolean windowCancelled = flush != null && flush.cancel(false);
+        if (!windowCancelled && !draining.compareAndSet(false, true)) {
+            return;
+        }
+        // Closing writes a close frame, never do that on the producer thread
+        try {
+            writerExecutor.execute(() -> {
+                try {
+                    runPendingClose();
+                } finally {
+                    draining.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            draining.set(false);
+            log.error("Writer executor rejected close of session {}", session.getId());
+        }
+    }
+
+    /**
+     * Close the session if a close is pending, caller holds the drain flag
+     */
+    private void runPendingClose() {
+        CloseStatus status = pendingClose.getAndSet(null);
+        if (status == null) {
+            return;
+        }
+        try {
+            session.close(status);
+        } catch (Exception e) {
+            log.debug("Failed to close session {}", session.getId(), e);
+        }
+    }
+
+    private void closeAsync(CloseStatus status) {
+        if (!closed) {
+            stats.slowConsumersClosed.increment();
+            close(status);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.example.zzk.websocket.presence;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.example.zzk.metrics.MessagingMetrics;
+import com.example.zzk.redis.RedisSessionDirectory;
+import com.example.zzk.websocket.WsMsgTypeEnum;
+import com.example.zzk.websocket.bus.MessageBus;
+import com.example.zzk.websocket.dto.WebSocketMessageDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster-wide user presence
+ *
+ * Driven by the session registry: the first session of a user on this instance marks the
+ * user as connected here, the last one closing marks it as gone after a debounce delay, so a
+ * client that drops and reconnects within the delay never flaps offline. Connect / disconnect
+ * updates are applied to Redis in batches by {@link RedisSessionDirectory}, which also reports
+ * the users whose cluster-wide presence changed.
+ *
+ * Those changes are broadcast as USER_ONLINE / USER_OFFLINE at most once per broadcast interval,
+ * with all users that changed in the interval in one message. Every instance keeps a local copy
+ * of the online set, updated from those broadcasts and periodically rebuilt from the users of
+ * the live instances in the directory, so presence queries never leave the JVM. Users of an
+ * instance that crashed go offline once its liveness key expires and the directory reaps it. With the in-process message bus there is no directory,
+ * the local sessions alone decide presence.
+ */
+@Slf4j
+@Component
+public class PresenceService {
+
+    @Value("${websocket.presence.debounce-ms:5000}")
+    private long debounceMillis;
+
+    @Value("${websocket.presence.broadcast-enabled:true}")
+    private boolean broadcastEnabled;
+
+    @Value("${websocket.presence.broadcast-interval-ms:1000}")
+    private long broadcastIntervalMillis;
+
+    @Value("${websocket.presence.max-users-per-message:500}")
+    private int maxUsersPerMessage;
+
+    @Value("${websocket.presence.resync-interval-ms:60000}")
+    private long resyncIntervalMillis;
+
+    /** Null with the in-process message bus, this instance is the whole cluster then */
+    private final RedisSessionDirectory sessionDirectory;
+
+    private final MessageBus messageBus;
+
+    private final MessagingMetrics metrics;
+
+    /** Local copy of the cluster-wide online set, replaced on every resync */
+    private volatile Set<String> onlineUsers = ConcurrentHashMap.newKeySet();
+
+    /** User ID -> delayed "last session closed" update, guarded by this */
+    private final ConcurrentHashMap<String, ScheduledFuture<?>> pendingOffline = new ConcurrentHashMap<>();
+
+    /** User ID -> latest cluster-wide presence (true = online) not yet broadcast */
+    private final ConcurrentHashMap<String, Boolean> pendingBroadcast = new ConcurrentHashMap<>();
+
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    public PresenceService(Optional<RedisSessionDirectory> sessionDirectory, MessageBus messageBus,
+                           MessagingMetrics metrics) {
+        this.sessionDirectory = sessionDirectory.orElse(null);
+        this.messageBus = messageBus;
+        this.metrics = metrics;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "ws-presence");
+            t.setDaemon(true);
+            return t;
+        });
+        // Debounced disconnects are usually cancelled, do not keep them in the queue
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (sessionDirectory != null) {
+            sessionDirectory.setPresenceListener(this::onClusterPresenceChanged);
+            scheduler.scheduleWithFixedDelay(this::resync, 0, resyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        if (broadcastEnabled) {
+            scheduler.scheduleWithFixedDelay(this::flushBroadcasts, broadcastIntervalMillis, broadcastIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        metrics.gauge("ws.presence.online", "Users online cluster-wide, as seen by this instance", this,
+                PresenceService::onlineCount);
+        log.info("Presence initialized: debounce={} ms, broadcast={}, broadcastInterval={} ms, resyncInterval={} ms",
+                debounceMillis, broadcastEnabled, broadcastIntervalMillis, resyncIntervalMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    // ========================================
+    // Local session transitions, called by the session registry
+    // ========================================
+
+    /**
+     * The first session of a user connected to this instance
+     *
+     * @param userId The user ID
+     */
+    public synchronized void userConnected(String userId) {
+        ScheduledFuture<?> offline = pendingOffline.remove(userId);
+        if (offline != null && offline.cancel(false)) {
+            // Reconnected within the debounce delay, Redis still has the user here
+            log.debug("User {} reconnected within {} ms, presence unchanged", userId, debounceMillis);
+            return;
+        }
+        if (sessionDirectory == null) {
+            onClusterPresenceChanged(List.of(userId), List.of());
+        } else {
+            sessionDirectory.userConnected(userId);
+        }
+    }
+
+    /**
+     * The last session of a user on this instance closed
+     *
+     * @param userId The user ID
+     */
+    public synchronized void userDisconnected(String userId) {
+        if (debounceMillis <= 0) {
+            markOffline(userId);
+            return;
+        }
+        ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+        self[0] = scheduler.schedule(() -> expireOffline(userId, self[0]), debounceMillis, TimeUnit.MILLISECONDS);
+        pendingOffline.put(userId, self[0]);
+    }
+
+    private synchronized void expireOffline(String userId, ScheduledFuture<?> expected) {
+        if (expected != null && pendingOffline.remove(userId, expected)) {
+            markOffline(userId);
+        }
+    }
+
+    private void markOffline(String userId) {
+        if (sessionDirectory == null) {
+            onClusterPresenceChanged(List.of(), List.of(userId));
+        } else {
+            sessionDirectory.userDisconnected(userId);
+        }
+    }
+
+    // ========================================
+    // Queries, served from the local copy
+    // ========================================
+
+    /**
+     * @param userId The user ID
+     * @return Whether the user has a session on any instance
+     */
+    public boolean isOnline(String userId) {
+        return onlineUsers.contains(userId);
+    }
+
+    /**
+     * @return Number of users with a session on any instance
+     */
+    public int onlineCount() {
+        return onlineUsers.size();
+    }
+
+    // ========================================
+    // Cluster-wide changes
+    // ========================================
+
+    /**
+     * Users whose cluster-wide presence changed because of this instance, called on the directory thread,
+     * or directly under the service lock with the in-process message bus
+     */
+    private void onClusterPresenceChanged(List<String> online, List<String> offline) {
+        Set<String> users = onlineUsers;
+        users.addAll(online);
+        users.removeAll(offline);
+        if (broadcastEnabled) {
+            // Only the latest state of a user within one interval is broadcast
+            for (String userId : online) {
+                pendingBroadcast.put(userId, Boolean.TRUE);
+            }
+            for (String userId : offline) {
+                pendingBroadcast.put(userId, Boolean.FALSE);
+            }
+        }
+    }
+
+    /**
+     * Apply a presence broadcast received from Redis to the local copy
+     *
+     * @param action USER_ONLINE or USER_OFFLINE
+     * @param dataJson The broadcast data
+     */
+    public void applyBroadcast(String action, String dataJson) {
+        List<String> userIds = JSONObject.parseObject(dataJson).getList("userIds", String.class);
+        if (userIds == null) {
+            return;
+        }
+        if (WsMsgTypeEnum.USER_ONLINE.getCode().equals(action)) {
+            onlineUsers.addAll(userIds);
+        } else {
+            onlineUsers.removeAll(userIds);
+        }
+    }
+
+    /**
+     * @return Whether an action is a presence change this service owns
+     */
+    public static boolean isPresenceAction(String action) {
+        return WsMsgTypeEnum.USER_ONLINE.getCode().equals(action) || WsMsgTypeEnum.USER_OFFLINE.getCode().equals(action);
+    }
+
+    private void flushBroadcasts() {
+        if (pendingBroadcast.isEmpty()) {
+            return;
+        }
+        List<String> online = new ArrayList<>();
+        List<String> offline = new ArrayList<>();
+        Iterator<Map.Entry<String, Boolean>> it = pendingBroadcast.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Boolean> entry = it.next();
+            it.remove();
+            (entry.getValue() ? online : offline).add(entry.getKey());
+        }
+        try {
+            publish(WsMsgTypeEnum.USER_ONLINE, online);
+            publish(WsMsgTypeEnum.USER_OFFLINE, offline);
+        } catch (Exception e) {
+            log.error("Failed to broadcast presence changes ({} online, {} offline)", online.size(), offline.size(), e);
+        }
+    }
+
+    private void publish(WsMsgTypeEnum action, List<String> userIds) {
+        for (int from = 0; from < userIds.size(); from += maxUsersPerMessage) {
+            JSONObject data = new JSONObject();
+            data.put("userIds", userIds.subList(from, Math.min(userIds.size(), from + maxUsersPerMessage)));
+            data.put("timestamp", System.currentTimeMillis());
+            messageBus.publishAsync(new WebSocketMessageDTO(action.getCode(), data.toJSONString(), false, null, null,
+                    WebSocketMessageDTO.MessageBroadcastType.BROADCAST));
+        }
+    }
+
+    /**
+     * Replace the local copy with the users of the live instances, repairs missed broadcasts
+     */
+    private void resync() {
+        try {
+            Set<String> members = sessionDirectory.onlineUsers();
+            Set<String> fresh = ConcurrentHashMap.newKeySet(Math.max(16, members.size()));
+            fresh.addAll(members);
+            onlineUsers = fresh;
+        } catch (Exception e) {
+            log.error("Failed to resync presence from Redis", e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.zzk.websocket.registry;
+
+import com.example.zzk.websocket.WireProtocol;
+import com.example.zzk.websocket.inbound.RateLimitBucket;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Set;
+
+/**
+ * Typed metadata of one local WebSocket session
+ *
+ * Replaces the string-keyed attribute lookups on the delivery path. The user ID is the
+ * registry's interned instance, shared by all sessions of the same user.
+ */
+@Getter
+public final class LocalSession {
+
+    /** Session attribute holding this record once the session is registered */
+    public static final String ATTRIBUTE = "localSession";
+
+    private final WebSocketSession session;
+
+    /** Plain user ID, interned by the registry */
+    private final String userId;
+
+    private final WireProtocol protocol;
+
+    /**
+     * Actions the session subscribed to, null while it receives every action.
+     * Written by the subscription index only.
+     */
+    volatile Set<String> subscribedActions;
+
+    /**
+     * Inbound frame budget of the session, created by the inbound rate limiter on the first frame.
+     * Frames of one session are handled one at a time, so it is never created twice.
+     */
+    @Setter
+    private volatile RateLimitBucket inboundBucket;
+
+    LocalSession(WebSocketSession session, String userId, WireProtocol protocol) {
+        this.session = session;
+        this.userId = userId;
+        this.protocol = protocol;
+    }
+
+    /**
+     * @return The registered record of a session, null if it is not (or no longer) registered
+     */
+    public static LocalSession of(WebSocketSession session) {
+        return (LocalSession) session.getAttributes().get(ATTRIBUTE);
+    }
+
+    public String getId() {
+        return session.getId();
+    }
+
+    public boolean isOpen() {
+        return session.isOpen();
+    }
+
+    public boolean isWildcard() {
+        return subscribedActions == null;
+    }
+}
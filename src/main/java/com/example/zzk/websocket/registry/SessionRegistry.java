@@ -0,0 +1,141 @@
+package com.example.zzk.websocket.registry;
+
+import com.example.zzk.metrics.MessagingMetrics;
+import com.example.zzk.websocket.WireProtocol;
+import com.example.zzk.websocket.presence.PresenceService;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the WebSocket sessions connected to this instance
+ *
+ * Every session gets a {@link LocalSession} record. Sessions are indexed by user as small
+ * immutable arrays instead of one inner map per user, and every session of a user shares one
+ * user ID instance. Broadcasts do not iterate the registry, they go through the flat
+ * copy-on-write arrays of {@link SubscriptionIndex}.
+ *
+ * Mutations are serialized on the registry, reads are lock-free. User presence is updated
+ * under the same lock, so connect / disconnect transitions of a user keep their order.
+ */
+@Component
+public class SessionRegistry {
+
+    private static final LocalSession[] EMPTY = new LocalSession[0];
+
+    private final PresenceService presenceService;
+
+    private final MessagingMetrics metrics;
+
+    /** User ID -> sessions of the user on this instance, replaced on every change */
+    private final ConcurrentHashMap<String, LocalSession[]> byUser = new ConcurrentHashMap<>();
+
+    private volatile int size;
+
+    public SessionRegistry(PresenceService presenceService, MessagingMetrics metrics) {
+        this.presenceService = presenceService;
+        this.metrics = metrics;
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        metrics.gauge("ws.sessions.active", "Open WebSocket sessions on this instance", this, SessionRegistry::size);
+        metrics.gauge("ws.users.active", "Users with at least one open session on this instance", byUser, Map::size);
+        metrics.gauge("ws.sessions.per.user.max", "Most open sessions held by a single user on this instance",
+                byUser, map -> map.values().stream().mapToInt(sessions -> sessions.length).max().orElse(0));
+    }
+
+    /**
+     * Register a newly established session
+     *
+     * @param session The session
+     * @param userId The plain user ID the session belongs to
+     * @param protocol The negotiated wire protocol
+     * @return The session's record, also stored under {@link LocalSession#ATTRIBUTE}
+     */
+    public synchronized LocalSession add(WebSocketSession session, String userId, WireProtocol protocol) {
+        LocalSession existing = LocalSession.of(session);
+        if (existing != null) {
+            return existing;
+        }
+        LocalSession[] userSessions = byUser.get(userId);
+        // All sessions of a user share the ID instance of the first one
+        String internedUserId = userSessions != null ? userSessions[0].getUserId() : userId;
+
+        LocalSession local = new LocalSession(session, internedUserId, protocol);
+        session.getAttributes().put(LocalSession.ATTRIBUTE, local);
+
+        if (userSessions == null) {
+            byUser.put(internedUserId, new LocalSession[]{local});
+            // First session of this user on this instance: make it routable cluster-wide
+            presenceService.userConnected(internedUserId);
+        } else {
+            LocalSession[] grown = Arrays.copyOf(userSessions, userSessions.length + 1);
+            grown[userSessions.length] = local;
+            byUser.put(internedUserId, grown);
+        }
+        size++;
+        return local;
+    }
+
+    /**
+     * Remove a session, safe to call more than once
+     *
+     * @param session The session
+     * @return The removed record, null if the session was not registered
+     */
+    public synchronized LocalSession remove(WebSocketSession session) {
+        LocalSession local = LocalSession.of(session);
+        if (local == null) {
+            return null;
+        }
+        LocalSession[] userSessions = byUser.get(local.getUserId());
+        if (userSessions == null || !Arrays.asList(userSessions).contains(local)) {
+            // Removed before
+            return null;
+        }
+        if (userSessions.length == 1) {
+            byUser.remove(local.getUserId());
+            presenceService.userDisconnected(local.getUserId());
+        } else {
+            LocalSession[] shrunk = new LocalSession[userSessions.length - 1];
+            int i = 0;
+            for (LocalSession s : userSessions) {
+                if (s != local) {
+                    shrunk[i++] = s;
+                }
+            }
+            byUser.put(local.getUserId(), shrunk);
+        }
+        size--;
+        return local;
+    }
+
+    /**
+     * @param userId The plain user ID
+     * @return The user's sessions on this instance, empty if none, must not be modified
+     */
+    public LocalSession[] sessionsOf(String userId) {
+        LocalSession[] sessions = byUser.get(userId);
+        return sessions == null ? EMPTY : sessions;
+    }
+
+    /**
+     * @return User IDs with at least one session on this instance
+     */
+    public Iterable<String> users() {
+        return byUser.keySet();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.zzk.websocket.registry;
+
+import com.example.zzk.websocket.WsMsgTypeEnum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from message action to the local sessions interested in it
+ *
+ * A session that never subscribed is a wildcard session and receives every action,
+ * which keeps legacy clients working unchanged. Once a client subscribes it only
+ * receives the actions it asked for, until it subscribes to "*" again.
+ *
+ * Wildcard sessions are a flat copy-on-write array, as are the subscribers of each action. Both
+ * are published together as one immutable view that every change replaces under the lock, so a
+ * lookup reads one consistent view without locking: a session moving in or out of the wildcard
+ * set is returned exactly once. A broadcast with no action subscribers iterates the wildcard
+ * array itself. Changes copy the arrays they touch; they are rare next to broadcasts.
+ */
+public class SubscriptionIndex {
+
+    /** Subscribing to this action switches a session back to receiving everything */
+    public static final String ALL_ACTIONS = "*";
+
+    private static final LocalSession[] EMPTY = new LocalSession[0];
+
+    /** Current wildcard sessions and action subscribers, replaced under the lock, never modified */
+    private volatile View view = new View(EMPTY, Map.of());
+
+    /**
+     * Index a newly registered session, it receives every action until it subscribes
+     */
+    public synchronized void add(LocalSession session) {
+        if (session.isWildcard()) {
+            View current = view;
+            view = new View(with(current.wildcard(), session), current.byAction());
+        }
+    }
+
+    /**
+     * Remove a session from every index entry
+     */
+    public synchronized void remove(LocalSession session) {
+        View current = view;
+        Map<String, LocalSession[]> byAction = new HashMap<>(current.byAction());
+        removeFromActions(byAction, session, session.subscribedActions);
+        view = new View(without(current.wildcard(), session), byAction);
+    }
+
+    /**
+     * Subscribe a session to actions
+     *
+     * @param session The subscribing session
+     * @param actions Action codes, see {@link WsMsgTypeEnum#getCode()}
+     * @return The actions the session is subscribed to afterwards, "*" for wildcard
+     */
+    public synchronized Set<String> subscribe(LocalSession session, Collection<String> actions) {
+        View current = view;
+        if (actions.contains(ALL_ACTIONS)) {
+            if (!session.isWildcard()) {
+                Map<String, LocalSession[]> byAction = new HashMap<>(current.byAction());
+                removeFromActions(byAction, session, session.subscribedActions);
+                view = new View(with(current.wildcard(), session), byAction);
+                session.subscribedActions = null;
+            }
+            return Set.of(ALL_ACTIONS);
+        }
+        Set<String> subscribed = session.subscribedActions;
+        LocalSession[] wildcard = current.wildcard();
+        if (subscribed == null) {
+            // Only read and written under the lock
+            subscribed = new HashSet<>();
+            wildcard = without(wildcard, session);
+        }
+        Map<String, LocalSession[]> byAction = new HashMap<>(current.byAction());
+        for (String action : actions) {
+            if (subscribed.add(action)) {
+                byAction.put(action, with(byAction.getOrDefault(action, EMPTY), session));
+            }
+        }
+        // Leaves the wildcard set and joins its actions in the same view
+        view = new View(wildcard, byAction);
+        session.subscribedActions = subscribed;
+        return Set.copyOf(subscribed);
+    }
+
+    /**
+     * Unsubscribe a session from actions
+     *
+     * Unsubscribing a wildcard session narrows it to every known action except the given ones.
+     *
+     * @param session The unsubscribing session
+     * @param actions Action codes
+     * @return The actions the session is subscribed to afterwards
+     */
+    public synchronized Set<String> unsubscribe(LocalSession session, Collection<String> actions) {
+        if (session.isWildcard()) {
+            List<String> remaining = new ArrayList<>();
+            for (WsMsgTypeEnum type : WsMsgTypeEnum.values()) {
+                if (!actions.contains(type.getCode())) {
+                    remaining.add(type.getCode());
+                }
+            }
+            return subscribe(session, remaining);
+        }
+        Set<String> subscribed = session.subscribedActions;
+        List<String> removed = new ArrayList<>();
+        for (String action : actions) {
+            if (subscribed.remove(action)) {
+                removed.add(action);
+            }
+        }
+        if (!removed.isEmpty()) {
+            View current = view;
+            Map<String, LocalSession[]> byAction = new HashMap<>(current.byAction());
+            removeFromActions(byAction, session, removed);
+            view = new View(current.wildcard(), byAction);
+        }
+        return Set.copyOf(subscribed);
+    }
+
+    /**
+     * Snapshot of the sessions that should receive an action
+     *
+     * @param action Action code
+     * @return Wildcard sessions plus sessions subscribed to the action, each once, must not be modified
+     */
+    public List<LocalSession> sessionsFor(String action) {
+        View current = view;
+        LocalSession[] subscribed = action == null ? null : current.byAction().get(action);
+        if (subscribed == null) {
+            return Arrays.asList(current.wildcard());
+        }
+        LocalSession[] wildcard = current.wildcard();
+        LocalSession[] targets = Arrays.copyOf(wildcard, wildcard.length + subscribed.length);
+        System.arraycopy(subscribed, 0, targets, wildcard.length, subscribed.length);
+        return Arrays.asList(targets);
+    }
+
+    private static void removeFromActions(Map<String, LocalSession[]> byAction, LocalSession session,
+                                          Collection<String> actions) {
+        if (actions == null) {
+            return;
+        }
+        for (String action : actions) {
+            LocalSession[] sessions = byAction.get(action);
+            if (sessions != null) {
+                LocalSession[] shrunk = without(sessions, session);
+                if (shrunk.length == 0) {
+                    byAction.remove(action);
+                } else {
+                    byAction.put(action, shrunk);
+                }
+            }
+        }
+    }
+
+    private static LocalSession[] with(LocalSession[] sessions, LocalSession session) {
+        LocalSession[] grown = Arrays.copyOf(sessions, sessions.length + 1);
+        grown[sessions.length] = session;
+        return grown;
+    }
+
+    private static LocalSession[] without(LocalSession[] sessions, LocalSession session) {
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] == session) {
+                LocalSession[] shrunk = new LocalSession[sessions.length - 1];
+                System.arraycopy(sessions, 0, shrunk, 0, i);
+                System.arraycopy(sessions, i + 1, shrunk, i, shrunk.length - i);
+                return shrunk;
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Immutable state read by lookups
+     *
+     * @param wildcard Sessions receiving every action
+     * @param byAction Action code -> sessions subscribed to it, never empty
+     */
+    private record View(LocalSession[] wildcard, Map<String, LocalSession[]> byAction) {
+    }
+}
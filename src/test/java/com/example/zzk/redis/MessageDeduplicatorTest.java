@@ -0,0 +1,128 @@
+package com.example.zzk.redis;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageDeduplicatorTest {
+
+    private static MessageDeduplicator deduplicator(int windowSize) {
+        MessageDeduplicator deduplicator = new MessageDeduplicator();
+        ReflectionTestUtils.setField(deduplicator, "enabled", true);
+        ReflectionTestUtils.setField(deduplicator, "windowSize", windowSize);
+        deduplicator.init();
+        return deduplicator;
+    }
+
+    /**
+     * @return count positive IDs whose home slot is the given one, in increasing order
+     */
+    private static List<Long> idsWithHome(MessageDeduplicator deduplicator, int slot, int count, long from) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = from; ids.size() < count; id++) {
+            if (deduplicator.slotOf(id) == slot) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    void repeatedIdIsADuplicateUntilItLeavesTheWindow() {
+        MessageDeduplicator deduplicator = deduplicator(4);
+        assertTrue(deduplicator.firstSeen(1L));
+        assertFalse(deduplicator.firstSeen(1L));
+        for (long id = 2; id <= 4; id++) {
+            assertTrue(deduplicator.firstSeen(id));
+        }
+        assertFalse(deduplicator.firstSeen(1L));
+
+        // A fifth ID evicts the oldest one
+        assertTrue(deduplicator.firstSeen(5L));
+        assertTrue(deduplicator.firstSeen(1L));
+    }
+
+    @Test
+    void messagesWithoutIdAreNeverDuplicates() {
+        MessageDeduplicator deduplicator = deduplicator(4);
+        assertTrue(deduplicator.firstSeen(null));
+        assertTrue(deduplicator.firstSeen(null));
+        assertTrue(deduplicator.firstSeen(0L));
+        assertTrue(deduplicator.firstSeen(0L));
+    }
+
+    @Test
+    void evictionShiftsBackAProbeRunThatWrapsAroundTheTable() {
+        // Window 4 uses a table of 8 slots
+        MessageDeduplicator deduplicator = deduplicator(4);
+        List<Long> lastSlot = idsWithHome(deduplicator, 7, 2, 1);
+        List<Long> firstSlot = idsWithHome(deduplicator, 0, 2, 1);
+        long a = lastSlot.get(0);
+        long b = firstSlot.get(0);
+        long c = lastSlot.get(1);
+        long d = firstSlot.get(1);
+        // Slots 7: a, 0: b, 1: c, 2: d
+        for (long id : List.of(a, b, c, d)) {
+            assertTrue(deduplicator.firstSeen(id));
+        }
+
+        // Evicting a: b is at its home and stays, c moves back across the end of the table, d follows
+        long e = idsWithHome(deduplicator, 1, 1, 1).get(0);
+        assertTrue(deduplicator.firstSeen(e));
+        for (long id : List.of(b, c, d, e)) {
+            assertFalse(deduplicator.firstSeen(id));
+        }
+
+        // Evicting b: d and e move back into the slots that were freed
+        long f = idsWithHome(deduplicator, 3, 1, 1).get(0);
+        assertTrue(deduplicator.firstSeen(f));
+        for (long id : List.of(c, d, e, f)) {
+            assertFalse(deduplicator.firstSeen(id));
+        }
+
+        // Evicting c deletes the slot it was shifted into earlier
+        long g = idsWithHome(deduplicator, 7, 1, c + 1).get(0);
+        assertTrue(deduplicator.firstSeen(g));
+        for (long id : List.of(d, e, f, g)) {
+            assertFalse(deduplicator.firstSeen(id));
+        }
+
+        // Checked last, a first sighting enters the window and evicts again
+        assertTrue(deduplicator.firstSeen(a));
+        assertTrue(deduplicator.firstSeen(b));
+    }
+
+    @Test
+    void matchesAReferenceWindowUnderRandomTraffic() {
+        for (int windowSize : new int[]{4, 16, 1024}) {
+            MessageDeduplicator deduplicator = deduplicator(windowSize);
+            int window = Integer.highestOneBit(Math.max(2, windowSize - 1)) << 1;
+            ArrayDeque<Long> order = new ArrayDeque<>();
+            Set<Long> inWindow = new HashSet<>();
+            Random random = new Random(windowSize);
+            for (int i = 0; i < 200_000; i++) {
+                // IDs drawn from a few windows' worth, so repeats and evictions are both frequent
+                long id = 1 + random.nextInt(window * 3);
+                boolean expected = !inWindow.contains(id);
+                assertEquals(expected, deduplicator.firstSeen(id), "window " + windowSize + ", step " + i);
+                if (expected) {
+                    if (order.size() == window) {
+                        inWindow.remove(order.pollFirst());
+                    }
+                    order.addLast(id);
+                    inWindow.add(id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.zzk.websocket.bus;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new RingBuffer<Integer>(5).capacity());
+        assertEquals(8, new RingBuffer<Integer>(8).capacity());
+        assertEquals(16, new RingBuffer<Integer>(9).capacity());
+    }
+
+    @Test
+    void rejectsOffersWhenFullUntilAnItemIsTaken() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+
+        assertEquals(0, ring.poll());
+        assertTrue(ring.offer(4));
+        assertFalse(ring.offer(5));
+    }
+
+    @Test
+    void keepsFifoOrderAcrossManyLaps() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        int next = 0;
+        int expected = 0;
+        // Alternate between a partly and a completely filled ring so positions wrap at every offset
+        for (int lap = 0; lap < 1000; lap++) {
+            int batch = 1 + lap % 4;
+            for (int i = 0; i < batch; i++) {
+                assertTrue(ring.offer(next++));
+            }
+            for (int i = 0; i < batch; i++) {
+                assertEquals(expected++, ring.poll());
+            }
+            assertTrue(ring.isEmpty());
+            assertNull(ring.poll());
+        }
+    }
+
+    @Test
+    void concurrentProducersLoseNothingAndKeepPerProducerOrder() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 20_000;
+        RingBuffer<long[]> ring = new RingBuffer<>(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long seq = 0; seq < perProducer; seq++) {
+                    long[] item = {producer, seq};
+                    while (!ring.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+        long[] nextSeq = new long[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            long[] item = ring.poll();
+            if (item == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(nextSeq[(int) item[0]]++, item[1]);
+            received++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(ring.isEmpty());
+    }
+}
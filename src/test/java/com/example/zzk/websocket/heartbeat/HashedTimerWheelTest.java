@@ -0,0 +1,127 @@
+package com.example.zzk.websocket.heartbeat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashedTimerWheelTest {
+
+    private static final long TICK_MILLIS = 5;
+
+    private HashedTimerWheel<String> wheel;
+
+    private void start(int wheelSize, Consumer<String> onExpire) {
+        wheel = new HashedTimerWheel<>(wheelSize, TICK_MILLIS, "test-wheel", onExpire);
+        wheel.start();
+    }
+
+    @AfterEach
+    void stop() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+    }
+
+    @Test
+    void firesNoEarlierThanTheDelayEvenAfterSeveralRotations() throws InterruptedException {
+        ConcurrentHashMap<String, Long> firedAt = new ConcurrentHashMap<>();
+        CountDownLatch fired = new CountDownLatch(2);
+        start(4, item -> {
+            firedAt.put(item, System.nanoTime());
+            fired.countDown();
+        });
+
+        long scheduledAt = System.nanoTime();
+        // 4 buckets of 5 ms: 100 ms is five rotations away
+        wheel.schedule("short", 10);
+        wheel.schedule("long", 100);
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        // Scheduling rounds to the current tick, so allow one tick of slack
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(firedAt.get("short") - scheduledAt) >= 10 - TICK_MILLIS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(firedAt.get("long") - scheduledAt) >= 100 - TICK_MILLIS);
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() throws InterruptedException {
+        List<String> expired = new CopyOnWriteArrayList<>();
+        CountDownLatch sentinel = new CountDownLatch(1);
+        start(8, item -> {
+            expired.add(item);
+            if (item.equals("sentinel")) {
+                sentinel.countDown();
+            }
+        });
+
+        wheel.schedule("cancelled", 20).cancel();
+        wheel.schedule("sentinel", 60);
+
+        assertTrue(sentinel.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("sentinel"), expired);
+    }
+
+    @Test
+    void cancellingATimeoutOfTheSameTickFromTheCallbackSkipsIt() throws InterruptedException {
+        List<String> expired = new CopyOnWriteArrayList<>();
+        AtomicReference<HashedTimerWheel.Timeout<String>> second = new AtomicReference<>();
+        CountDownLatch sentinel = new CountDownLatch(1);
+        start(8, item -> {
+            expired.add(item);
+            if (item.equals("first")) {
+                // Same bucket, same tick, not visited yet
+                second.get().cancel();
+            } else if (item.equals("sentinel")) {
+                sentinel.countDown();
+            }
+        });
+
+        // Scheduled back to back they normally share the deadline tick; either way the second is visited later
+        wheel.schedule("first", 20);
+        second.set(wheel.schedule("second", 20));
+        wheel.schedule("sentinel", 80);
+
+        assertTrue(sentinel.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "sentinel"), expired);
+    }
+
+    @Test
+    void callbackCanRescheduleItsOwnItem() throws InterruptedException {
+        CountDownLatch rounds = new CountDownLatch(5);
+        start(8, item -> {
+            rounds.countDown();
+            if (rounds.getCount() > 0) {
+                wheel.schedule(item, TICK_MILLIS);
+            }
+        });
+
+        wheel.schedule("periodic", TICK_MILLIS);
+
+        assertTrue(rounds.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void failingCallbackDoesNotStopTheWheel() throws InterruptedException {
+        CountDownLatch survived = new CountDownLatch(1);
+        start(8, item -> {
+            if (item.equals("boom")) {
+                throw new IllegalStateException("callback failure");
+            }
+            survived.countDown();
+        });
+
+        wheel.schedule("boom", 10);
+        wheel.schedule("after", 40);
+
+        assertTrue(survived.await(5, TimeUnit.SECONDS));
+    }
+}
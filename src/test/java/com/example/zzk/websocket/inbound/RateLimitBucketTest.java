@@ -0,0 +1,69 @@
+package com.example.zzk.websocket.inbound;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitBucketTest {
+
+    /** Arbitrary origin, nanoTime values may be negative */
+    private static final long START = -5_000_000_000L;
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    void admitsAFullBurstThenMakesTheNextFrameWait() {
+        RateLimitBucket bucket = new RateLimitBucket(10, 5, START);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(START), "frame " + i);
+        }
+        assertEquals(INTERVAL, bucket.tryAcquire(START));
+        assertEquals(INTERVAL / 2, bucket.tryAcquire(START + INTERVAL / 2));
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() {
+        RateLimitBucket bucket = new RateLimitBucket(10, 5, START);
+        for (int i = 0; i < 5; i++) {
+            bucket.tryAcquire(START);
+        }
+        // One token per emission interval, never more than one ahead of schedule
+        assertEquals(0, bucket.tryAcquire(START + INTERVAL));
+        assertTrue(bucket.tryAcquire(START + INTERVAL) > 0);
+        assertEquals(0, bucket.tryAcquire(START + 2 * INTERVAL));
+        assertTrue(bucket.tryAcquire(START + 2 * INTERVAL) > 0);
+    }
+
+    @Test
+    void idleTimeRefillsAtMostOneBurst() {
+        RateLimitBucket bucket = new RateLimitBucket(10, 5, START);
+        long later = START + TimeUnit.SECONDS.toNanos(60);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(later), "frame " + i);
+        }
+        assertTrue(bucket.tryAcquire(later) > 0);
+    }
+
+    @Test
+    void deniedFramesDoNotConsumeTokens() {
+        RateLimitBucket bucket = new RateLimitBucket(10, 1, START);
+        assertEquals(0, bucket.tryAcquire(START));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(bucket.tryAcquire(START) > 0);
+        }
+        assertEquals(0, bucket.tryAcquire(START + INTERVAL));
+    }
+
+    @Test
+    void releaseGivesBackTheTokenJustTaken() {
+        RateLimitBucket bucket = new RateLimitBucket(10, 2, START);
+        assertEquals(0, bucket.tryAcquire(START));
+        assertEquals(0, bucket.tryAcquire(START));
+        bucket.release();
+        assertEquals(0, bucket.tryAcquire(START));
+        assertTrue(bucket.tryAcquire(START) > 0);
+    }
+}
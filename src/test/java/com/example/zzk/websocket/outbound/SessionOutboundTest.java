@@ -0,0 +1,279 @@
+package com.example.zzk.websocket.outbound;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionOutboundTest {
+
+    private static final CloseStatus OVERFLOW = CloseStatus.POLICY_VIOLATION;
+
+    private final FakeSession session = new FakeSession();
+
+    private final ManualExecutor writer = new ManualExecutor();
+
+    private final OutboundStats stats = new OutboundStats();
+
+    private ExecutorService threads;
+
+    private ScheduledExecutorService timer;
+
+    @AfterEach
+    void shutdown() {
+        if (threads != null) {
+            threads.shutdownNow();
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+    }
+
+    private static OutboundLimits limits(int maxMessages, long maxBytes, OverflowPolicy policy) {
+        return new OutboundLimits(maxMessages, maxBytes, 10_000, policy, OVERFLOW);
+    }
+
+    private static OutboundMessage frame(String payload) {
+        return new OutboundMessage(new TextMessage(payload), null);
+    }
+
+    private static OutboundMessage frame(String payload, String coalesceKey) {
+        return new OutboundMessage(new TextMessage(payload), coalesceKey);
+    }
+
+    @Test
+    void dropOldestKeepsTheNewestFrames() {
+        SessionOutbound outbound = new SessionOutbound(session.proxy(), writer, limits(2, 1 << 20, OverflowPolicy.DROP_OLDEST), stats);
+        assertTrue(outbound.offer(frame("a")));
+        assertTrue(outbound.offer(frame("b")));
+        assertTrue(outbound.offer(frame("c")));
+
+        assertEquals(2, outbound.size());
+        assertEquals(1, stats.dropped());
+        writer.runAll();
+        assertEquals(List.of("send:b", "send:c"), session.events);
+    }
+
+    @Test
+    void byteLimitDropsOldestFramesUntilTheNewOneFits() {
+        // Text frames count two bytes per char
+        SessionOutbound outbound = new SessionOutbound(session.proxy(), writer, limits(100, 10, OverflowPolicy.DROP_OLDEST), stats);
+        outbound.offer(frame("aa"));
+        outbound.offer(frame("bb"));
+        outbound.offer(frame("cccc"));
+
+        assertEquals(8, outbound.bytes());
+        assertEquals(2, stats.dropped());
+        writer.runAll();
+        assertEquals(List.of("send:cccc"), session.events);
+    }
+
+    @Test
+    void coalesceReplacesTheQueuedFrameWithTheSameKey() {
+        SessionOutbound outbound = new SessionOutbound(session.proxy(), writer, limits(2, 1 << 20, OverflowPolicy.COALESCE), stats);
+        outbound.offer(frame("x1", "X"));
+        outbound.offer(frame("y1", "Y"));
+        outbound.offer(frame("x2", "X"));
+
+        assertEquals(1, stats.dropped());
+        writer.runAll();
+        assertEquals(List.of("send:y1", "send:x2"), session.events);
+    }
+
+    @Test
+    void coalesceWithoutAMatchingKeyDropsTheOldest() {
+        SessionOutbound outbound = new SessionOutbound(session.proxy(), writer, limits(2, 1 << 20, OverflowPolicy.COALESCE), stats);
+        outbound.offer(frame("x1", "X"));
+        outbound.offer(frame("y1", "Y"));
+        outbound.offer(frame("z1", "Z"));
+
+        writer.runAll();
+        assertEquals(List.of("send:y1", "send:z1"), session.events);
+    }
+
+    @Test
+    void closePolicyRejectsTheFrameAndClosesTheSession() {
+        SessionOutbound outbound = new SessionOutbound(session.proxy(), writer, limits(1, 1 << 20, OverflowPolicy.CLOSE), stats);
+        assertTrue(outbound.offer(frame("a")));
+        assertFalse(outbound.offer(frame("b")));
+        assertFalse(outbound.offer(frame("c")));
+
+        assertEquals(1, stats.slowConsumersClosed());
+        writer.runAll();
+        // The queued frame is discarded, the close frame is the only write
+        assertEquals(List.of("close:" + OVERFLOW.getCode()), session.events);
+    }
+
+    @Test
+    void newerUpdateSupersedesTheQueuedOneWithinTheBatchingWindow() throws InterruptedException {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        SessionOutbound outbound = new SessionOutbound(session.proxy(), writer, limits(100, 1 << 20, OverflowPolicy.DROP_OLDEST),
+                stats, new BatchSettings(20, 32), timer);
+        outbound.offer(new OutboundMessage(new TextMessage("{\"v\":1}"), null, "UPDATE_EVENT:7"));
+        outbound.offer(new OutboundMessage(new TextMessage("{\"o\":1}"), null, null));
+        outbound.offer(new OutboundMessage(new TextMessage("{\"v\":2}"), null, "UPDATE_EVENT:7"));
+
+        assertEquals(2, outbound.size());
+        assertEquals(1, stats.dropped());
+        assertTrue(writer.awaitTask(5, TimeUnit.SECONDS));
+        writer.runAll();
+        assertEquals(List.of("send:[{\"o\":1},{\"v\":2}]"), session.events);
+    }
+
+    @Test
+    void closeOfAnIdleSessionRunsOnTheWriterExecutor() {
+        SessionOutbound outbound = new SessionOutbound(session.proxy(), writer, limits(10, 1 << 20, OverflowPolicy.DROP_OLDEST), stats);
+        outbound.close(CloseStatus.SESSION_NOT_RELIABLE);
+
+        assertTrue(session.events.isEmpty());
+        writer.runAll();
+        assertEquals(List.of("close:" + CloseStatus.SESSION_NOT_RELIABLE.getCode()), session.events);
+        assertFalse(outbound.offer(frame("late")));
+    }
+
+    @Test
+    void closeWaitsForTheSendInProgress() throws InterruptedException {
+        threads = Executors.newFixedThreadPool(2);
+        CountDownLatch release = new CountDownLatch(1);
+        session.blockSends(release);
+        SessionOutbound outbound = new SessionOutbound(session.proxy(), threads, limits(10, 1 << 20, OverflowPolicy.DROP_OLDEST), stats);
+
+        outbound.offer(frame("a"));
+        assertTrue(session.sendStarted.await(5, TimeUnit.SECONDS));
+        outbound.close(CloseStatus.SESSION_NOT_RELIABLE);
+
+        // A second writer thread is free, yet the close must not overtake the blocked send
+        Thread.sleep(100);
+        assertEquals(List.of("send:a"), session.events);
+
+        release.countDown();
+        assertTrue(session.awaitEvents(2, 5, TimeUnit.SECONDS));
+        assertEquals(List.of("send:a", "close:" + CloseStatus.SESSION_NOT_RELIABLE.getCode()), session.events);
+        assertFalse(session.concurrentWrite);
+    }
+
+    /**
+     * Runs submitted tasks only when asked to, on the test thread
+     */
+    private static final class ManualExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+            notifyAll();
+        }
+
+        synchronized boolean awaitTask(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (tasks.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = poll()) != null) {
+                task.run();
+            }
+        }
+
+        private synchronized Runnable poll() {
+            return tasks.poll();
+        }
+    }
+
+    /**
+     * Open session recording sends and closes as "send:payload" / "close:code"
+     */
+    private static final class FakeSession {
+
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        private final CountDownLatch sendStarted = new CountDownLatch(1);
+
+        private volatile CountDownLatch sendBlocker;
+
+        private volatile boolean writing;
+
+        private volatile boolean concurrentWrite;
+
+        private volatile boolean open = true;
+
+        void blockSends(CountDownLatch until) {
+            sendBlocker = until;
+        }
+
+        boolean awaitEvents(int count, long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (events.size() < count) {
+                if (System.nanoTime() > deadline) {
+                    return false;
+                }
+                Thread.sleep(5);
+            }
+            return true;
+        }
+
+        WebSocketSession proxy() {
+            return (WebSocketSession) Proxy.newProxyInstance(WebSocketSession.class.getClassLoader(),
+                    new Class<?>[]{WebSocketSession.class}, (proxy, method, args) -> switch (method.getName()) {
+                        case "getId" -> "test-session";
+                        case "isOpen" -> open;
+                        case "sendMessage" -> {
+                            write("send:" + ((WebSocketMessage<?>) args[0]).getPayload());
+                            yield null;
+                        }
+                        case "close" -> {
+                            write("close:" + (args == null ? CloseStatus.NORMAL.getCode() : ((CloseStatus) args[0]).getCode()));
+                            open = false;
+                            yield null;
+                        }
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "equals" -> proxy == args[0];
+                        case "toString" -> "FakeSession";
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        private void write(String event) throws InterruptedException {
+            if (writing) {
+                concurrentWrite = true;
+            }
+            writing = true;
+            try {
+                events.add(event);
+                CountDownLatch blocker = sendBlocker;
+                if (event.startsWith("send:") && blocker != null) {
+                    sendStarted.countDown();
+                    blocker.await();
+                }
+            } finally {
+                writing = false;
+            }
+        }
+    }
+}
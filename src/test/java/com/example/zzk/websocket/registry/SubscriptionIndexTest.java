@@ -0,0 +1,141 @@
+package com.example.zzk.websocket.registry;
+
+import com.example.zzk.websocket.WireProtocol;
+import com.example.zzk.websocket.WsMsgTypeEnum;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SubscriptionIndexTest {
+
+    private static final String TASK_UPDATED = WsMsgTypeEnum.TASK_UPDATED.getCode();
+    private static final String NEW_EVENT = WsMsgTypeEnum.NEW_EVENT.getCode();
+    private static final String PLAN_UPDATED = WsMsgTypeEnum.PLAN_UPDATED.getCode();
+
+    private final SubscriptionIndex index = new SubscriptionIndex();
+
+    private LocalSession register(int n) {
+        String id = "session-" + n;
+        WebSocketSession session = (WebSocketSession) Proxy.newProxyInstance(WebSocketSession.class.getClassLoader(),
+                new Class<?>[]{WebSocketSession.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "isOpen" -> true;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> id;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        LocalSession local = new LocalSession(session, "user-" + n, WireProtocol.JSON);
+        index.add(local);
+        return local;
+    }
+
+    @Test
+    void newSessionReceivesEveryAction() {
+        LocalSession session = register(0);
+        assertTrue(session.isWildcard());
+        assertEquals(List.of(session), index.sessionsFor(TASK_UPDATED));
+        assertEquals(List.of(session), index.sessionsFor(NEW_EVENT));
+        assertEquals(List.of(session), index.sessionsFor(null));
+    }
+
+    @Test
+    void firstSubscriptionNarrowsTheSessionToTheSubscribedActions() {
+        LocalSession subscriber = register(0);
+        LocalSession wildcard = register(1);
+
+        assertEquals(Set.of(TASK_UPDATED), index.subscribe(subscriber, List.of(TASK_UPDATED)));
+
+        assertFalse(subscriber.isWildcard());
+        assertEquals(Set.of(wildcard, subscriber), Set.copyOf(index.sessionsFor(TASK_UPDATED)));
+        assertEquals(2, index.sessionsFor(TASK_UPDATED).size());
+        assertEquals(List.of(wildcard), index.sessionsFor(NEW_EVENT));
+    }
+
+    @Test
+    void unsubscribeRemovesOnlyTheGivenActions() {
+        LocalSession session = register(0);
+        index.subscribe(session, List.of(TASK_UPDATED, PLAN_UPDATED));
+
+        assertEquals(Set.of(PLAN_UPDATED), index.unsubscribe(session, List.of(TASK_UPDATED)));
+        assertTrue(index.sessionsFor(TASK_UPDATED).isEmpty());
+        assertEquals(List.of(session), index.sessionsFor(PLAN_UPDATED));
+    }
+
+    @Test
+    void unsubscribingAWildcardSessionKeepsEveryOtherKnownAction() {
+        LocalSession session = register(0);
+
+        Set<String> remaining = index.unsubscribe(session, List.of(TASK_UPDATED));
+
+        assertEquals(WsMsgTypeEnum.values().length - 1, remaining.size());
+        assertFalse(remaining.contains(TASK_UPDATED));
+        assertTrue(index.sessionsFor(TASK_UPDATED).isEmpty());
+        assertEquals(List.of(session), index.sessionsFor(NEW_EVENT));
+    }
+
+    @Test
+    void subscribingToAllActionsRestoresTheWildcard() {
+        LocalSession session = register(0);
+        index.subscribe(session, List.of(TASK_UPDATED));
+
+        assertEquals(Set.of(SubscriptionIndex.ALL_ACTIONS), index.subscribe(session, List.of(SubscriptionIndex.ALL_ACTIONS)));
+
+        assertTrue(session.isWildcard());
+        // Listed once, not also through its former subscription
+        assertEquals(List.of(session), index.sessionsFor(TASK_UPDATED));
+        assertEquals(List.of(session), index.sessionsFor(NEW_EVENT));
+    }
+
+    @Test
+    void removedSessionIsNoLongerReturned() {
+        LocalSession wildcard = register(0);
+        LocalSession subscriber = register(1);
+        index.subscribe(subscriber, List.of(TASK_UPDATED));
+
+        index.remove(wildcard);
+        index.remove(subscriber);
+
+        assertTrue(index.sessionsFor(TASK_UPDATED).isEmpty());
+        assertTrue(index.sessionsFor(NEW_EVENT).isEmpty());
+    }
+
+    @Test
+    void sessionsAreReturnedExactlyOnceWhileSubscriptionsFlip() throws InterruptedException {
+        List<LocalSession> sessions = List.of(register(0), register(1), register(2), register(3));
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread flipper = new Thread(() -> {
+            while (running.get()) {
+                for (LocalSession session : sessions) {
+                    index.subscribe(session, List.of(TASK_UPDATED));
+                    index.subscribe(session, List.of(SubscriptionIndex.ALL_ACTIONS));
+                }
+            }
+        });
+        flipper.start();
+        try {
+            long deadline = System.nanoTime() + 300_000_000L;
+            while (System.nanoTime() < deadline) {
+                List<LocalSession> targets = index.sessionsFor(TASK_UPDATED);
+                Set<LocalSession> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+                distinct.addAll(targets);
+                assertEquals(distinct.size(), targets.size(), "duplicate in " + targets);
+                // Wildcard or subscribed, every session receives TASK_UPDATED
+                assertEquals(sessions.size(), distinct.size(), "missing in " + targets);
+            }
+        } finally {
+            running.set(false);
+            flipper.join();
+        }
+    }
+}